@@ -0,0 +1,66 @@
+package com.afollestad.aimage.benchmarks;
+
+import com.afollestad.aimage.CacheKey;
+import com.afollestad.aimage.DecodeConfig;
+import com.afollestad.aimage.Dimension;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures making the key of a request and its disk cache file name, which happens for every request (and every
+ * bind of a view) before the memory cache is even looked at.
+ *
+ * @author Aidan Follestad
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheKeyBenchmark {
+
+    private String[] sources;
+    private Dimension dimension;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        sources = new String[1000];
+        for (int i = 0; i < sources.length; i++)
+            sources[i] = "https://images.example.com/photos/" + i + "/large.jpg?width=1024&quality=85";
+        dimension = new Dimension(256);
+    }
+
+    private String nextSource() {
+        String source = sources[next];
+        next = (next + 1) % sources.length;
+        return source;
+    }
+
+    @Benchmark
+    public CacheKey newKey() {
+        return new CacheKey(nextSource(), dimension);
+    }
+
+    @Benchmark
+    public String toFileName() {
+        return new CacheKey(nextSource(), dimension).toFileName();
+    }
+
+    @Benchmark
+    public String toFileNameWithTransformation() {
+        return new CacheKey(nextSource(), dimension, "circle", DecodeConfig.PREFER_RGB_565).toFileName();
+    }
+
+    @Benchmark
+    public boolean equalKeys() {
+        String source = nextSource();
+        return new CacheKey(source, dimension).equals(new CacheKey(source, dimension));
+    }
+}
@@ -0,0 +1,79 @@
+package com.afollestad.aimage.benchmarks;
+
+import com.afollestad.aimage.cache.IOUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link IOUtils#copy(InputStream, OutputStream)} of a 4MB image from a stream that hands out at most a
+ * given number of bytes per read, like a socket that only has part of the response available.
+ *
+ * @author Aidan Follestad
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CopyBenchmark {
+
+    @Param({"1024", "4096", "16384", "65536"})
+    public int readSize;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        data = new byte[4 * 1024 * 1024];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+    }
+
+    @Benchmark
+    public int copy() throws IOException {
+        return IOUtils.copy(new ChunkedInputStream(data, readSize), new NullOutputStream());
+    }
+
+    private static class ChunkedInputStream extends InputStream {
+
+        public ChunkedInputStream(byte[] data, int chunkSize) {
+            this.input = new ByteArrayInputStream(data);
+            this.chunkSize = chunkSize;
+        }
+
+        private final InputStream input;
+        private final int chunkSize;
+
+        @Override
+        public int read() throws IOException {
+            return input.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return input.read(buffer, offset, Math.min(length, chunkSize));
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.afollestad.aimage.benchmarks;
+
+import com.afollestad.aimage.metrics.Histogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures recording into a {@link Histogram}, which every load does a few times when metrics are on, on its own and
+ * from several threads at once (the loads of the executors all record into the same histograms).
+ *
+ * @author Aidan Follestad
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HistogramBenchmark {
+
+    private Histogram histogram;
+
+    @Setup
+    public void setUp() {
+        histogram = new Histogram();
+    }
+
+    /**
+     * The values each thread records; they go through a range of magnitudes, so every bucket of the histogram is
+     * touched.
+     */
+    @State(Scope.Thread)
+    public static class Values {
+
+        private long value;
+
+        public long next() {
+            value = (value * 31 + 7) & 0xFFFFF;
+            return value;
+        }
+    }
+
+    @Benchmark
+    @Group("single")
+    @GroupThreads(1)
+    public void record(Values values) {
+        histogram.record(values.next());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public void recordContended(Values values) {
+        histogram.record(values.next());
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(1)
+    public long snapshotPercentile(Values values) {
+        histogram.record(values.next());
+        return histogram.snapshot().getPercentile(99);
+    }
+}
@@ -0,0 +1,23 @@
+package com.afollestad.aimage;
+
+import android.graphics.Bitmap;
+
+import java.util.List;
+
+/**
+ * Receives the images of a batch requested with {@link ImageManager#getAll(List, Dimension, BatchListener)}: each
+ * image as soon as it's loaded through {@link #onImageReceived(String, Bitmap)}, and all of them together once the
+ * last one is in.
+ *
+ * @author Aidan Follestad
+ */
+public interface BatchListener extends ImageListener {
+
+    /**
+     * Called once every image of the batch has been received, isn't called if any of its requests was cancelled.
+     *
+     * @param bitmaps The images in the order their sources were requested; null for sources that were null or
+     *                couldn't be loaded.
+     */
+    public abstract void onBatchReceived(List<Bitmap> bitmaps);
+}
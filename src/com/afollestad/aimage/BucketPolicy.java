@@ -0,0 +1,60 @@
+package com.afollestad.aimage;
+
+/**
+ * Rounds requested dimensions up to a bucket, so that views of nearly the same size (e.g. a 317x317 and a 320x320
+ * view) share a single downloaded, decoded and cached image instead of each loading their own. The image is at least
+ * as large as the requested dimension, the view scales it down when it's drawn. Set with
+ * {@link ImageManager#setBucketPolicy(BucketPolicy)}.
+ *
+ * @author Aidan Follestad
+ */
+public interface BucketPolicy {
+
+    /**
+     * Returns the bucket for a dimension, which must be equal to or larger than the dimension on both sides.
+     */
+    public abstract Dimension bucket(Dimension dimension);
+
+    /**
+     * Rounds both sides up to the next power of two (e.g. 317 becomes 512).
+     */
+    public static class PowerOfTwo implements BucketPolicy {
+
+        @Override
+        public Dimension bucket(Dimension dimension) {
+            return new Dimension(roundUp(dimension.getWidth()), roundUp(dimension.getHeight()));
+        }
+
+        private static int roundUp(int size) {
+            if (size <= 0)
+                return size;
+            int bucket = Integer.highestOneBit(size);
+            return bucket == size ? bucket : bucket << 1;
+        }
+    }
+
+    /**
+     * Rounds both sides up to the next multiple of a step size in pixels (e.g. 317 becomes 320 with a step of 64).
+     */
+    public static class Steps implements BucketPolicy {
+
+        public Steps(int stepPx) {
+            if (stepPx <= 0)
+                throw new IllegalArgumentException("The step size must be greater than 0.");
+            this.stepPx = stepPx;
+        }
+
+        private final int stepPx;
+
+        @Override
+        public Dimension bucket(Dimension dimension) {
+            return new Dimension(roundUp(dimension.getWidth()), roundUp(dimension.getHeight()));
+        }
+
+        private int roundUp(int size) {
+            if (size <= 0)
+                return size;
+            return ((size + stepPx - 1) / stepPx) * stepPx;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.afollestad.aimage;
+
+/**
+ * Identifies a cached image: the source it was loaded from, the {@link Dimension} it was loaded for, the
+ * transformation that was applied to it and the {@link DecodeConfig} it was decoded with (if any). A 128-bit hash of
+ * all of them is computed once when the key is created, so comparing and hashing keys is cheap, and the hash doubles
+ * as a fixed-length file name for the disk cache no matter how long the source is.
+ *
+ * @author Aidan Follestad
+ */
+public final class CacheKey {
+
+    public CacheKey(String source, Dimension dimension) {
+        this(source, dimension, null);
+    }
+
+    /**
+     * @param transformation An identifier for the transformation applied to the image, or null if there isn't one.
+     */
+    public CacheKey(String source, Dimension dimension, String transformation) {
+        this(source, dimension, transformation, null);
+    }
+
+    /**
+     * @param transformation An identifier for the transformation applied to the image, or null if there isn't one.
+     * @param decodeConfig   The config the image is decoded with, or null to use the ImageManager's default.
+     */
+    public CacheKey(String source, Dimension dimension, String transformation, DecodeConfig decodeConfig) {
+        if (source == null) {
+            throw new IllegalArgumentException("The source of a CacheKey cannot be null.");
+        }
+        this.source = source;
+        this.dimension = dimension;
+        this.transformation = transformation;
+        this.decodeConfig = decodeConfig;
+
+        long h1 = FNV_OFFSET_BASIS;
+        long h2 = SEED;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            h1 = (h1 ^ c) * FNV_PRIME;
+            h2 = (h2 ^ c) * MIX_PRIME;
+            h2 ^= h2 >>> 47;
+        }
+        // The separator makes sure a source can't run into the dimension or transformation that follows it
+        long width = dimension != null ? dimension.getWidth() : -1;
+        long height = dimension != null ? dimension.getHeight() : -1;
+        long tail = (width << 32) ^ (height & 0xFFFFFFFFL);
+        h1 = (h1 ^ 0xFFFF) * FNV_PRIME;
+        h1 = (h1 ^ tail) * FNV_PRIME;
+        h2 = (h2 ^ 0xFFFF) * MIX_PRIME;
+        h2 = (h2 ^ tail) * MIX_PRIME;
+        if (transformation != null) {
+            for (int i = 0; i < transformation.length(); i++) {
+                char c = transformation.charAt(i);
+                h1 = (h1 ^ c) * FNV_PRIME;
+                h2 = (h2 ^ c) * MIX_PRIME;
+                h2 ^= h2 >>> 47;
+            }
+        }
+        if (decodeConfig != null) {
+            // Keys without a config hash the same as they always have, so existing disk caches stay valid
+            h1 = (h1 ^ 0xFFFE) * FNV_PRIME;
+            h1 = (h1 ^ decodeConfig.ordinal()) * FNV_PRIME;
+            h2 = (h2 ^ 0xFFFE) * MIX_PRIME;
+            h2 = (h2 ^ decodeConfig.ordinal()) * MIX_PRIME;
+        }
+        hash1 = mix(h1);
+        hash2 = mix(h2 ^ source.length());
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long SEED = 0x9e3779b97f4a7c15L;
+    private static final long MIX_PRIME = 0xc6a4a7935bd1e995L;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String source;
+    private final Dimension dimension;
+    private final String transformation;
+    private final DecodeConfig decodeConfig;
+    private final long hash1;
+    private final long hash2;
+    private String fileName;
+
+    /**
+     * Gets the key of the original (untransformed, not downsampled, encoded) image of this key's source.
+     */
+    public CacheKey getOriginalKey() {
+        if (dimension == null && transformation == null && decodeConfig == null)
+            return this;
+        return new CacheKey(source, null, null, null);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public Dimension getDimension() {
+        return dimension;
+    }
+
+    public String getTransformation() {
+        return transformation;
+    }
+
+    /**
+     * Gets the config the image is decoded with, or null if it's decoded with the ImageManager's default.
+     */
+    public DecodeConfig getDecodeConfig() {
+        return decodeConfig;
+    }
+
+    /**
+     * Gets the 128-bit hash of the key as a 32 character hex string, used to name the key's file in the disk cache.
+     */
+    public String toFileName() {
+        if (fileName == null) {
+            char[] name = new char[32];
+            appendHex(name, 0, hash1);
+            appendHex(name, 16, hash2);
+            fileName = new String(name);
+        }
+        return fileName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof CacheKey))
+            return false;
+        CacheKey other = (CacheKey) o;
+        return hash1 == other.hash1 && hash2 == other.hash2 && source.equals(other.source) &&
+                (dimension == null ? other.dimension == null : dimension.equals(other.dimension)) &&
+                (transformation == null ? other.transformation == null : transformation.equals(other.transformation)) &&
+                decodeConfig == other.decodeConfig;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash1 ^ (hash1 >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(source);
+        if (dimension != null)
+            builder.append('_').append(dimension);
+        if (transformation != null)
+            builder.append('_').append(transformation);
+        if (decodeConfig != null)
+            builder.append('_').append(decodeConfig);
+        return builder.toString();
+    }
+
+    /**
+     * The finalizer of MurmurHash3, spreads every input bit over the whole hash.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static void appendHex(char[] out, int offset, long value) {
+        for (int i = 15; i >= 0; i--) {
+            out[offset + i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.afollestad.aimage;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+
+/**
+ * Tracks the device's connectivity through the connectivity change broadcast, so checking whether the device is
+ * online is a field read instead of a query to the ConnectivityManager on every disk cache miss.
+ */
+class ConnectivityMonitor extends BroadcastReceiver {
+
+    public ConnectivityMonitor(Context context, Listener listener) {
+        Context app = context.getApplicationContext();
+        this.context = app != null ? app : context;
+        this.listener = listener;
+        update();
+        try {
+            this.context.registerReceiver(this, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+            registered = true;
+        } catch (Exception e) {
+            // Without the broadcast, the state is queried every time it's needed instead
+            e.printStackTrace();
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * Called on the main thread when the device goes online or offline, or the active network changes.
+         */
+        public abstract void onConnectivityChanged(boolean online, boolean metered);
+    }
+
+    private final Context context;
+    private final Listener listener;
+    private volatile boolean registered;
+    private volatile boolean online;
+    private volatile boolean metered;
+
+    /**
+     * Returns true if the device has (or is establishing) a network connection.
+     */
+    public boolean isOnline() {
+        if (!registered)
+            update();
+        return online;
+    }
+
+    /**
+     * Returns true if the active network may cost the user money, e.g. a mobile data connection.
+     */
+    public boolean isMetered() {
+        if (!registered)
+            update();
+        return metered;
+    }
+
+    /**
+     * Unregisters the broadcast receiver, so the application context doesn't keep the monitor (and its listener)
+     * alive. The state is queried every time it's needed afterwards.
+     */
+    public void release() {
+        if (!registered)
+            return;
+        registered = false;
+        try {
+            context.unregisterReceiver(this);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        boolean wasOnline = online;
+        boolean wasMetered = metered;
+        update();
+        if (online != wasOnline || metered != wasMetered)
+            listener.onConnectivityChanged(online, metered);
+    }
+
+    private void update() {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        online = activeNetwork != null && activeNetwork.isConnectedOrConnecting();
+        if (!online) {
+            metered = false;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            metered = cm.isActiveNetworkMetered();
+        } else {
+            metered = activeNetwork.getType() == ConnectivityManager.TYPE_MOBILE;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.afollestad.aimage;
+
+import android.graphics.Bitmap;
+
+/**
+ * Limits the total number of bytes of pixels that are being decoded at once. A decode reserves the size of the Bitmap
+ * it's about to allocate, and waits while the reservations of other decodes leave no room for it; so a burst of large
+ * images is decoded a few at a time, and peak memory stays predictable no matter how many threads are decoding.
+ * A single image that's larger than the whole budget is still decoded, alone.
+ *
+ * @author Aidan Follestad
+ */
+public class DecodeBudget {
+
+    public DecodeBudget(long maxBytes) {
+        setMaxBytes(maxBytes);
+    }
+
+    private long maxBytes;
+    private long usedBytes;
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("The decode budget must be greater than 0.");
+        this.maxBytes = maxBytes;
+        notifyAll();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the number of bytes that are currently reserved by decodes.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Reserves bytes for a decode, waiting until they fit in the budget. Every successful call must be followed by a
+     * {@link #release(long)} of the same number of bytes.
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting, nothing is reserved then.
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        while (usedBytes > 0 && usedBytes + bytes > maxBytes)
+            wait();
+        usedBytes += bytes;
+    }
+
+    public synchronized void release(long bytes) {
+        usedBytes -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * Estimates the number of bytes of a Bitmap with the given size and config.
+     */
+    public static long getByteCount(int width, int height, Bitmap.Config config) {
+        int bytesPerPixel;
+        if (config == Bitmap.Config.ALPHA_8)
+            bytesPerPixel = 1;
+        else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444)
+            bytesPerPixel = 2;
+        else
+            bytesPerPixel = 4;
+        return (long) width * height * bytesPerPixel;
+    }
+}
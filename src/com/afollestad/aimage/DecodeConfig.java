@@ -0,0 +1,24 @@
+package com.afollestad.aimage;
+
+/**
+ * Decides the pixel format images are decoded with. Set it for every request with
+ * {@link ImageManager#setDecodeConfig(DecodeConfig)}, or for a single request with
+ * {@link ImageManager#get(String, Dimension, java.util.List, DecodeConfig)}.
+ *
+ * @author Aidan Follestad
+ */
+public enum DecodeConfig {
+
+    /**
+     * Every image is decoded with 32 bits per pixel. The default.
+     */
+    ARGB_8888,
+
+    /**
+     * Images that can't have transparent pixels are decoded with 16 bits per pixel, which halves their memory at the
+     * cost of some color depth (gradients are dithered). Whether an image can have transparent pixels is read from
+     * its header: JPEGs never do, and PNGs, WebPs and GIFs say so. Images that might be transparent are still decoded
+     * with 32 bits per pixel.
+     */
+    PREFER_RGB_565
+}
@@ -4,7 +4,8 @@ import android.content.Context;
 import android.view.View;
 
 /**
- * Holds width and height values.
+ * Holds width and height values. Dimensions are immutable, so they can be used as (part of) keys in hash-based
+ * collections.
  */
 public class Dimension {
 
@@ -56,8 +57,8 @@ public class Dimension {
         height = dpToPx(context, heightDp);
     }
 
-    private int width;
-    private int height;
+    private final int width;
+    private final int height;
 
 
     /**
@@ -96,6 +97,11 @@ public class Dimension {
         return other.getWidth() == this.getWidth() && other.getHeight() == this.getHeight();
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * width + height;
+    }
+
     @Override
     public String toString() {
         return width + "x" + height;
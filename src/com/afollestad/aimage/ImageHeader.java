@@ -0,0 +1,125 @@
+package com.afollestad.aimage;
+
+/**
+ * Reads whether an image can have transparent pixels from the first bytes of its encoded data, without decoding it.
+ * Whenever the header isn't understood or doesn't fit in the bytes that were read, the image is assumed to have
+ * transparency, which is always safe to decode.
+ *
+ * @author Aidan Follestad
+ */
+final class ImageHeader {
+
+    private ImageHeader() {
+    }
+
+    /**
+     * The number of bytes {@link #mayHaveAlpha(byte[], int)} needs to see. PNG palettes and transparency chunks come
+     * after the image header, so it's more than the header itself.
+     */
+    public static final int LENGTH = 4096;
+
+    private static final int PNG_COLOR_GRAY_ALPHA = 4;
+    private static final int PNG_COLOR_RGBA = 6;
+    private static final int GIF_EXTENSION = 0x21;
+    private static final int GIF_GRAPHIC_CONTROL = 0xF9;
+    private static final int GIF_IMAGE = 0x2C;
+
+    public static boolean mayHaveAlpha(byte[] data, int length) {
+        if (length >= 3 && u8(data, 0) == 0xFF && u8(data, 1) == 0xD8 && u8(data, 2) == 0xFF)
+            return false;
+        if (length >= 8 && u8(data, 0) == 0x89 && ascii(data, 1, "PNG"))
+            return pngMayHaveAlpha(data, length);
+        if (length >= 12 && ascii(data, 0, "RIFF") && ascii(data, 8, "WEBP"))
+            return webpMayHaveAlpha(data, length);
+        if (length >= 6 && ascii(data, 0, "GIF8"))
+            return gifMayHaveAlpha(data, length);
+        return true;
+    }
+
+    /**
+     * Grayscale with alpha and RGBA images have an alpha channel; other color types are only transparent if there's a
+     * tRNS chunk before the image data.
+     */
+    private static boolean pngMayHaveAlpha(byte[] data, int length) {
+        if (length < 26 || !ascii(data, 12, "IHDR"))
+            return true;
+        int colorType = u8(data, 25);
+        if (colorType == PNG_COLOR_GRAY_ALPHA || colorType == PNG_COLOR_RGBA)
+            return true;
+        int offset = 8;
+        while (offset + 8 <= length) {
+            long chunkLength = u32(data, offset);
+            if (ascii(data, offset + 4, "tRNS"))
+                return true;
+            if (ascii(data, offset + 4, "IDAT"))
+                return false;
+            if (chunkLength > length)
+                return true;
+            // Length, type, data and CRC
+            offset += 12 + (int) chunkLength;
+        }
+        return true;
+    }
+
+    /**
+     * Lossy WebP ("VP8 ") is always opaque; lossless ("VP8L") has an alpha bit in its header, and extended ("VP8X")
+     * has an alpha flag.
+     */
+    private static boolean webpMayHaveAlpha(byte[] data, int length) {
+        if (length < 16)
+            return true;
+        if (ascii(data, 12, "VP8 "))
+            return false;
+        if (ascii(data, 12, "VP8L"))
+            return length < 25 || (u8(data, 24) & 0x10) != 0;
+        if (ascii(data, 12, "VP8X"))
+            return length < 21 || (u8(data, 20) & 0x10) != 0;
+        return true;
+    }
+
+    /**
+     * Only the first frame is decoded, it's transparent if the graphic control extension before it says so.
+     */
+    private static boolean gifMayHaveAlpha(byte[] data, int length) {
+        if (length < 13)
+            return true;
+        int offset = 13;
+        int flags = u8(data, 10);
+        if ((flags & 0x80) != 0) {
+            // Skips the global color table
+            offset += 3 * (1 << ((flags & 0x07) + 1));
+        }
+        while (offset < length) {
+            int block = u8(data, offset);
+            if (block == GIF_IMAGE)
+                return false;
+            if (block != GIF_EXTENSION || offset + 1 >= length)
+                return true;
+            if (u8(data, offset + 1) == GIF_GRAPHIC_CONTROL)
+                return offset + 3 >= length || (u8(data, offset + 3) & 0x01) != 0;
+            // Skips the other extension's sub-blocks, up to the terminating empty one
+            offset += 2;
+            while (offset < length && u8(data, offset) != 0)
+                offset += u8(data, offset) + 1;
+            offset++;
+        }
+        return true;
+    }
+
+    private static int u8(byte[] data, int offset) {
+        return data[offset] & 0xFF;
+    }
+
+    private static long u32(byte[] data, int offset) {
+        return ((long) u8(data, offset) << 24) | (u8(data, offset + 1) << 16) | (u8(data, offset + 2) << 8) |
+                u8(data, offset + 3);
+    }
+
+    private static boolean ascii(byte[] data, int offset, String expected) {
+        for (int i = 0; i < expected.length(); i++) {
+            if (data[offset + i] != expected.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
@@ -1,18 +1,48 @@
 package com.afollestad.aimage;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.net.Uri;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 import android.util.LruCache;
+import com.afollestad.aimage.cache.BitmapPool;
+import com.afollestad.aimage.cache.ByteArrayPool;
 import com.afollestad.aimage.cache.DiskCache;
 import com.afollestad.aimage.cache.IOUtils;
+import com.afollestad.aimage.cache.PoolingByteArrayOutputStream;
+import com.afollestad.aimage.cache.SoftBitmapCache;
+import com.afollestad.aimage.loaders.AssetSourceLoader;
+import com.afollestad.aimage.loaders.ContentSourceLoader;
+import com.afollestad.aimage.loaders.FileSourceLoader;
+import com.afollestad.aimage.loaders.ResourceSourceLoader;
+import com.afollestad.aimage.metrics.Counter;
+import com.afollestad.aimage.metrics.ImageMetrics;
+import com.afollestad.aimage.metrics.Timing;
+import com.afollestad.aimage.net.CacheHeaders;
+import com.afollestad.aimage.net.Fetcher;
+import com.afollestad.aimage.net.HttpFetcher;
+import com.afollestad.aimage.net.HttpStatusException;
 
 import java.io.*;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <p>The most important class in the AImage library; downloads images, and handles caching them on the disk and in memory
@@ -25,27 +55,154 @@ public class ImageManager {
 
     public ImageManager(Context context) {
         this.context = context;
-        mLruCache = new LruCache<String, Bitmap>(MEM_CACHE_SIZE_KB * 1024) {
+        mLruCache = newMemoryCache(MEM_CACHE_SIZE_KB * 1024);
+        mTileCache = newTileCache((int) (Runtime.getRuntime().maxMemory() * DEFAULT_TILE_CACHE_FRACTION));
+        mDiskCache = new DiskCache(context);
+        mDiskExecutorService.setMetrics(mMetrics, Timing.DISK_QUEUE_WAIT);
+        mNetworkExecutorService.setMetrics(mMetrics, Timing.NETWORK_QUEUE_WAIT);
+        mConnectivity = new ConnectivityMonitor(context, new ConnectivityMonitor.Listener() {
             @Override
-            public int sizeOf(String key, Bitmap value) {
-                return value.getRowBytes() * value.getHeight();
+            public void onConnectivityChanged(boolean online, boolean metered) {
+                ImageManager.this.onConnectivityChanged(online, metered);
             }
-        };
-        mDiskCache = new DiskCache(context);
+        });
+        registerMemoryCallbacks(context);
+        mSourceLoaders.put("aimage", new SourceLoader() {
+            @Override
+            public boolean isLocal() {
+                return true;
+            }
+
+            @Override
+            public Result open(String source) {
+                if (!source.equals(SOURCE_FALLBACK) || fallbackImageId <= 0)
+                    return null;
+                return Result.fromStream(ImageManager.this.context.getResources().openRawResource(fallbackImageId));
+            }
+        });
+        FileSourceLoader fileLoader = new FileSourceLoader(context);
+        mSourceLoaders.put("", fileLoader);
+        mSourceLoaders.put("file", fileLoader);
+        mSourceLoaders.put("content", new ContentSourceLoader(context));
+        mSourceLoaders.put("asset", new AssetSourceLoader(context));
+        mSourceLoaders.put("android.resource", new ResourceSourceLoader(context));
+        // Posted, so the settings made right after construction (e.g. the cache directory) apply to the warm start
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                warmStart();
+            }
+        });
     }
 
 
     private int fallbackImageId;
     private boolean DEBUG = false;
+    private boolean exactScale = false;
+    private boolean cacheOriginals = true;
+    private boolean cacheVariants = false;
+    private boolean parkOfflineRequests = true;
+    private volatile int meteredThreadCount = 0;
     private Context context;
     private DiskCache mDiskCache;
+    private final ConnectivityMonitor mConnectivity;
+    private ComponentCallbacks2 mMemoryCallbacks;
+    private volatile BitmapPool mBitmapPool;
+    private volatile BucketPolicy mBucketPolicy;
+    private volatile DecodeConfig mDecodeConfig = DecodeConfig.ARGB_8888;
+    private volatile int mWarmStartSize = -1;
+    /**
+     * Whether or not an image was put in the memory cache since the memory manifest was last saved.
+     */
+    private volatile boolean mMemoryChanged;
+    private volatile Fetcher mFetcher = new HttpFetcher();
+    private final DecodeBudget mDecodeBudget =
+            new DecodeBudget((long) (Runtime.getRuntime().maxMemory() * DEFAULT_DECODE_BUDGET_FRACTION));
+    /**
+     * Maps URI schemes to the loaders of their sources, plain file paths have the empty scheme.
+     */
+    private final Map<String, SourceLoader> mSourceLoaders = new ConcurrentHashMap<String, SourceLoader>();
+    /**
+     * Opens sources with any other scheme as URLs, e.g. ftp:// or jar:file://, and caches them on disk.
+     */
+    private final SourceLoader mUrlLoader = new SourceLoader() {
+        @Override
+        public boolean isLocal() {
+            return false;
+        }
+
+        @Override
+        public Result open(String source) throws IOException {
+            return Result.fromStream(mFetcher.fetch(source, null).getBody());
+        }
+    };
+    private final VariantIndex mVariantIndex = new VariantIndex();
     private Handler mHandler = new Handler(Looper.getMainLooper());
-    private LruCache<String, Bitmap> mLruCache = newConfiguredLruCache();
-    private ExecutorService mNetworkExecutorService = newConfiguredThreadPool();
-    private ExecutorService mDiskExecutorService = Executors.newCachedThreadPool(new LowPriorityThreadFactory());
+    private volatile LruCache<CacheKey, Bitmap> mLruCache;
+    /**
+     * Held while an image is put in the memory cache, and while the memory cache is replaced by one of a new size.
+     */
+    private final Object mMemoryCacheLock = new Object();
+    /**
+     * Keeps images evicted from the memory cache until the garbage collector needs their memory, unless they're
+     * reused through the BitmapPool instead.
+     */
+    private final SoftBitmapCache<CacheKey> mSoftCache = new SoftBitmapCache<CacheKey>(SOFT_CACHE_MAX_ENTRIES);
+    /**
+     * Counts the views showing each Bitmap, so one that's on screen is never reused through the Bitmap pool. Weak, so
+     * a view that's thrown away without releasing its Bitmap doesn't keep it alive.
+     */
+    private final WeakHashMap<Bitmap, Integer> mShownBitmaps = new WeakHashMap<Bitmap, Integer>();
+    /**
+     * Holds tiles of large images, separately from the memory cache so panning around one image doesn't evict every
+     * other image.
+     */
+    private volatile LruCache<CacheKey, Bitmap> mTileCache;
+    private final RegionDecoderCache mRegionDecoders = new RegionDecoderCache(MAX_REGION_DECODERS);
+    /**
+     * Striped by source, so requests that need the region decoder of a source that isn't open yet (e.g. its size and
+     * its first tiles) wait for a single open, and a single download of the original, instead of each making their own.
+     */
+    private final ReentrantLock[] mRegionDecoderLocks = newLocks(REGION_DECODER_LOCK_COUNT);
+    private PriorityExecutor mNetworkExecutorService = new PriorityExecutor(ASYNC_THREAD_COUNT, Executors.defaultThreadFactory());
+    private PriorityExecutor mDiskExecutorService = new PriorityExecutor(DISK_THREAD_COUNT, new LowPriorityThreadFactory());
+    private final Map<CacheKey, PendingLoad> mPendingLoads = new HashMap<CacheKey, PendingLoad>();
+    /**
+     * Network loads that are waiting for the device to come back online.
+     */
+    private final List<PendingLoad> mParkedLoads = new ArrayList<PendingLoad>();
+    private final ImageMetrics mMetrics = new ImageMetrics();
 
-    protected static final int MEM_CACHE_SIZE_KB = (int) (Runtime.getRuntime().maxMemory() / 2 / 1024);
+    /**
+     * The default memory cache size, as a fraction of the maximum heap size of the app.
+     */
+    public static final float DEFAULT_MEMORY_CACHE_FRACTION = 1f / 8;
+    protected static final int MEM_CACHE_SIZE_KB = (int) (Runtime.getRuntime().maxMemory() * DEFAULT_MEMORY_CACHE_FRACTION / 1024);
+    private static final int SOFT_CACHE_MAX_ENTRIES = 64;
+    /**
+     * The default number of bytes of images loaded into memory on a warm start, as a fraction of the memory cache size.
+     */
+    public static final float DEFAULT_WARM_START_FRACTION = 1f / 2;
+    /**
+     * The default tile cache size, as a fraction of the maximum heap size of the app.
+     */
+    public static final float DEFAULT_TILE_CACHE_FRACTION = 1f / 16;
+    /**
+     * The width and height of the tiles that {@link #getTile(String, int, int, int)} decodes.
+     */
+    public static final int TILE_SIZE = 256;
+    private static final int MAX_REGION_DECODERS = 4;
+    private static final int REGION_DECODER_LOCK_COUNT = 16;
     protected static final int ASYNC_THREAD_COUNT = (Runtime.getRuntime().availableProcessors() * 4);
+    /**
+     * Disk reads and decodes are CPU bound, so there's about one thread per core for them; downloads run on the network
+     * threads and are handed to these to be decoded.
+     */
+    protected static final int DISK_THREAD_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /**
+     * The default number of bytes of pixels that are decoded at once, as a fraction of the maximum heap size.
+     */
+    public static final float DEFAULT_DECODE_BUDGET_FRACTION = 1f / 8;
     public static final String SOURCE_FALLBACK = "aimage://fallback_image";
 
 	protected void log(String message) {
@@ -63,6 +220,29 @@ public class ImageManager {
 		return this;
 	}
 
+    /**
+     * Gets the number of asynchronous requests that have been made through this ImageManager.
+     */
+    public int getRequestCount() {
+        return (int) mMetrics.getCount(Counter.REQUEST);
+    }
+
+    /**
+     * Gets the number of asynchronous requests that didn't start a load of their own, because an identical request
+     * (same source and dimension) was already in flight and they were attached to it instead.
+     */
+    public int getDedupedRequestCount() {
+        return (int) mMetrics.getCount(Counter.DEDUPED_REQUEST);
+    }
+
+    /**
+     * Gets the metrics of this ImageManager: cache hit rates, bytes downloaded, and how long each stage of loading
+     * takes. Use them to tune the cache sizes, or add a listener to forward them to your own analytics.
+     */
+    public ImageMetrics getMetrics() {
+        return mMetrics;
+    }
+
     /**
      * Sets the directory that will be used to cache images.
      */
@@ -73,205 +253,1936 @@ public class ImageManager {
     }
 
     /**
-     * Sets the resource ID of fallback image that is used when an image can't be loaded, or when you call
-     * {@link com.afollestad.aimage.views.AImageView#showFallback()} from the AImageView.
+     * Returns true if the device is online. The state is tracked through the connectivity broadcast, so this is cheap
+     * enough to call on every load.
      */
-    public ImageManager setFallbackImage(int resourceId) {
-        this.fallbackImageId = resourceId;
+    public boolean isOnline() {
+        return mConnectivity.isOnline();
+    }
+
+    /**
+     * Sets whether or not asynchronous requests for network images that are made while the device is offline wait
+     * for it to come back online, and load then. This is on by default; when turned off, the fallback image is
+     * delivered right away instead. Either way, a stale copy in the disk cache is used if there is one.
+     */
+    public ImageManager setParkOfflineRequests(boolean park) {
+        this.parkOfflineRequests = park;
         return this;
     }
 
     /**
-     * Gets an image from a URI on the thread (Android doesn't allow this on the main UI thread) and returns the result.
-     *
-     * @param source   The URI to get the image from.
+     * Sets the number of images that are downloaded at once while the active network is metered (e.g. mobile data),
+     * so fewer requests compete for a slow connection. Set to 0 (the default) to use the same number of threads on
+     * every network.
      */
-    public Bitmap get(String source, Dimension dimension) {
-        if (source == null) {
-            return null;
+    public ImageManager setMeteredThreadCount(int threadCount) {
+        this.meteredThreadCount = Math.max(0, threadCount);
+        updateNetworkThreadCount(mConnectivity.isMetered());
+        return this;
+    }
+
+    /**
+     * Sets the {@link Fetcher} that downloads images from the network, or null to go back to the default
+     * {@link HttpFetcher}. Use it to change the timeouts, or to add headers to every request.
+     */
+    public ImageManager setFetcher(Fetcher fetcher) {
+        this.mFetcher = fetcher != null ? fetcher : new HttpFetcher();
+        return this;
+    }
+
+    /**
+     * Registers the loader of the sources with a URI scheme (e.g. "content"), replacing the one that's registered
+     * for it. Pass a null loader to unregister one. Loaders for the http and https schemes are ignored, since those
+     * sources are always downloaded with the {@link Fetcher}.
+     */
+    public ImageManager setSourceLoader(String scheme, SourceLoader loader) {
+        if (scheme == null)
+            throw new IllegalArgumentException("The scheme cannot be null, use an empty one for plain file paths.");
+        if (loader == null)
+            mSourceLoaders.remove(scheme.toLowerCase());
+        else
+            mSourceLoaders.put(scheme.toLowerCase(), loader);
+        return this;
+    }
+
+    /**
+     * Gets the loader that's registered for the scheme of a source, or the URL loader if there's none.
+     */
+    private SourceLoader getSourceLoader(String source) {
+        SourceLoader loader = mSourceLoaders.get(getScheme(source));
+        return loader != null ? loader : mUrlLoader;
+    }
+
+    private boolean isLocalSource(String source) {
+        return !source.startsWith("http") && getSourceLoader(source).isLocal();
+    }
+
+    /**
+     * Gets the lower case URI scheme of a source, or an empty string if it doesn't have one (e.g. a file path).
+     */
+    private static String getScheme(String source) {
+        int end = source.indexOf(':');
+        if (end <= 0 || !Character.isLetter(source.charAt(0)))
+            return "";
+        for (int i = 1; i < end; i++) {
+            char c = source.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.')
+                return "";
         }
-        String key = Utils.getKey(source, dimension);
-        Bitmap bitmap = mLruCache.get(key);
-        if (bitmap == null) {
-            bitmap = getBitmapFromDisk(key);
-        } else {
-            log("Got " + source + " from the memory cache.");
+        return source.substring(0, end).toLowerCase();
+    }
+
+    /**
+     * Sets the maximum number of bytes of images the memory cache can hold. Images that are already cached are kept,
+     * as far as they fit. Defaults to {@link #DEFAULT_MEMORY_CACHE_FRACTION} of the app's maximum heap size.
+     */
+    public ImageManager setMemoryCacheSize(int maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("The maximum size of the memory cache must be greater than 0.");
+        LruCache<CacheKey, Bitmap> cache = newMemoryCache(maxBytes);
+        // Swapped under the lock images are put with, so an image that's put while it's copied isn't lost
+        synchronized (mMemoryCacheLock) {
+            // The snapshot is ordered from least to most recently used, so the least recently used are evicted first
+            for (Map.Entry<CacheKey, Bitmap> entry : mLruCache.snapshot().entrySet())
+                cache.put(entry.getKey(), entry.getValue());
+            mLruCache = cache;
         }
-        if (bitmap == null) {
-            bitmap = getBitmapFromExternal(key, source, dimension);
-            log("Got " + source + " from the external source.");
-        } else {
-            log("Got " + source + " from the disk cache.");
+        return this;
+    }
+
+    /**
+     * Sets the size of the memory cache as a fraction of the app's maximum heap size, e.g. 0.25f for a quarter of it.
+     * Apps that need a lot of memory for other things should use less than the default,
+     * {@link #DEFAULT_MEMORY_CACHE_FRACTION}.
+     */
+    public ImageManager setMemoryCacheFraction(float fraction) {
+        if (fraction <= 0 || fraction > 1)
+            throw new IllegalArgumentException("The memory cache fraction must be greater than 0 and at most 1.");
+        return setMemoryCacheSize((int) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    /**
+     * Gets the maximum number of bytes of images the memory cache can hold.
+     */
+    public int getMemoryCacheSize() {
+        return mLruCache.maxSize();
+    }
+
+    /**
+     * Gets the number of bytes of images currently in the memory cache.
+     */
+    int getMemoryCacheUsage() {
+        return mLruCache.size();
+    }
+
+    /**
+     * Gets the pool evicted Bitmaps are reused from, or null if reuse is off.
+     */
+    BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    DecodeBudget getDecodeBudget() {
+        return mDecodeBudget;
+    }
+
+    /**
+     * Sets the number of bytes of images that are loaded back into the memory cache from the disk cache when the
+     * ImageManager is created. When the app goes to the background, the keys of the most recently used images in
+     * memory are saved; on the next start they're decoded on a low priority thread, most recently used first, so the
+     * first screen can be shown from memory. Only images that are still in the disk cache (and not stale) are loaded.
+     * 0 turns this off. Defaults to {@link #DEFAULT_WARM_START_FRACTION} of the memory cache size; must be set right
+     * after the ImageManager is created to affect its own warm start.
+     */
+    public ImageManager setWarmStartSize(int maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("The warm start size cannot be negative.");
+        mWarmStartSize = maxBytes;
+        return this;
+    }
+
+    private int getWarmStartSize() {
+        int size = mWarmStartSize;
+        return size >= 0 ? size : (int) (mLruCache.maxSize() * DEFAULT_WARM_START_FRACTION);
+    }
+
+    /**
+     * Sets the maximum number of bytes of tiles (see {@link #getTile(String, int, int, int)}) the tile cache can hold.
+     * Tiles that are already cached are dropped. Defaults to {@link #DEFAULT_TILE_CACHE_FRACTION} of the app's maximum
+     * heap size.
+     */
+    public ImageManager setTileCacheSize(int maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("The maximum size of the tile cache must be greater than 0.");
+        mTileCache = newTileCache(maxBytes);
+        return this;
+    }
+
+    /**
+     * Frees memory held by cached images, e.g. from the onTrimMemory() of an Activity. Levels are the
+     * ComponentCallbacks2.TRIM_MEMORY_* constants; the higher the level, the more is freed. The ImageManager already
+     * does this by itself when the system asks the app to trim its memory (on Android 4.0 and later).
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // The app went to the background, remember what was in memory before any of it is let go
+            saveMemoryManifest();
         }
-        return bitmap;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // The app is likely to be killed soon, let everything go
+            clearMemory();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            trimMemoryCache(mLruCache.maxSize() / 4);
+            clearReusableMemory();
+            clearTiles();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // Also covers TRIM_MEMORY_UI_HIDDEN, the app's UI isn't visible anymore
+            trimMemoryCache(mLruCache.maxSize() / 2);
+            clearReusableMemory();
+            clearTiles();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimMemoryCache(mLruCache.maxSize() * 3 / 4);
+        }
+        if (DEBUG)
+            log("Trimmed memory for level " + level + ", the memory cache now holds " + mLruCache.size() + " bytes.");
     }
 
     /**
-     * Gets an image from a URI on a separate thread and posts the results to a callback.
-     *
-     * @param source   The URI to get the image from.
-     * @param callback The callback that the result will be posted to.
+     * Removes every image from the memory cache, its soft reference tier, the Bitmap pool and the tile cache. Images
+     * stay in the disk cache.
      */
-    public void get(final String source, final ImageListener callback, final Dimension dimension) {
-    	if (!Looper.getMainLooper().equals(Looper.myLooper())) {
-            throw new RuntimeException("This must only be executed on the main UI Thread!");
-        } else if (source == null) {
-            return;
+    public void clearMemory() {
+        mLruCache.evictAll();
+        clearReusableMemory();
+        clearTiles();
+    }
+
+    /**
+     * Lets go of cached tiles, and closes the region decoders they were decoded with.
+     */
+    private void clearTiles() {
+        mTileCache.evictAll();
+        mRegionDecoders.clear();
+    }
+
+    /**
+     * Lets go of the images that were already evicted from the memory cache, but were kept to be reused.
+     */
+    private void clearReusableMemory() {
+        mSoftCache.clear();
+        BitmapPool pool = mBitmapPool;
+        if (pool != null)
+            pool.clear();
+    }
+
+    private void trimMemoryCache(int maxBytes) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            mLruCache.trimToSize(maxBytes);
+        } else {
+            // LruCache.trimToSize() is hidden before Jelly Bean MR1
+            mLruCache.evictAll();
         }
+    }
 
-        final String key = Utils.getKey(source, dimension);
-        Bitmap bitmap = mLruCache.get(key);
-        if (bitmap != null) {
-            log("Got " + source + " from the memory cache.");
-            postCallback(callback, source, bitmap);
+    /**
+     * Saves the keys of the images in the memory cache to the disk cache, most recently used first, so the next
+     * process can load them back with {@link #warmStart()}. Nothing is saved if no image was put in memory since the
+     * last save, so a trimmed cache never replaces the manifest of the full one.
+     */
+    private void saveMemoryManifest() {
+        if (!mMemoryChanged || getWarmStartSize() == 0)
             return;
+        mMemoryChanged = false;
+        // The snapshot is ordered from least to most recently used
+        List<Map.Entry<CacheKey, Bitmap>> snapshot =
+                new ArrayList<Map.Entry<CacheKey, Bitmap>>(mLruCache.snapshot().entrySet());
+        final List<MemoryManifest.Entry> entries = new ArrayList<MemoryManifest.Entry>(snapshot.size());
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            CacheKey key = snapshot.get(i).getKey();
+            // Local sources and the fallback aren't in the disk cache, they're decoded from where they're stored
+            if (isLocalSource(key.getSource()))
+                continue;
+            entries.add(new MemoryManifest.Entry(key, Utils.getByteCount(snapshot.get(i).getValue())));
         }
-
-        mDiskExecutorService.execute(new Runnable() {
+        mDiskExecutorService.submit(new Runnable() {
             @Override
             public void run() {
-                final Bitmap bitmap = getBitmapFromDisk(key);
-                if (bitmap != null) {
-                    log("Got " + source + " from the disk cache.");
-                    postCallback(callback, source, bitmap);
-                    return;
-                }
-
-                if (!Utils.isOnline(context) && source.startsWith("http")) {
-                    log("Device is offline, getting fallback image...");
-                    Bitmap fallback = get(ImageManager.SOURCE_FALLBACK, dimension);
-                    postCallback(callback, source, fallback);
-                    return;
+                DiskCache.Editor editor = mDiskCache.edit(MemoryManifest.DISK_CACHE_KEY);
+                try {
+                    MemoryManifest.write(new BufferedOutputStream(editor.newOutputStream()), entries);
+                    editor.commit();
+                    if (DEBUG)
+                        log("Saved " + entries.size() + " keys to the memory manifest.");
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    editor.abort();
                 }
-
-                mNetworkExecutorService.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        final Bitmap bitmap = getBitmapFromExternal(key, source, dimension);
-                        log("Got " + source + " from external source.");
-                        postCallback(callback, source, bitmap);
-                    }
-                });
             }
-        });
+        }, Priority.BACKGROUND);
     }
 
     /**
-     * Gets the path to a locally cached file based on the original source and view dimensions used to load it.
+     * Loads the images in the memory manifest that was saved by the previous process back into the memory cache, up
+     * to the warm start size, on a low priority disk thread.
      */
-    public String getCachedPath(String originalSource, Dimension dimen) {
-    	return mDiskCache.getFilePath(Utils.getKey(originalSource, dimen));
-    }
-    
-    private void postCallback(final ImageListener callback, final String source, final Bitmap bitmap) {
-        mHandler.post(new Runnable() {
+    private void warmStart() {
+        if (getWarmStartSize() == 0)
+            return;
+        mDiskExecutorService.submit(new Runnable() {
+            @Override
             public void run() {
-                if (callback != null)
-                    callback.onImageReceived(source, bitmap);
+                loadMemoryManifest();
             }
-        });
+        }, Priority.BACKGROUND);
     }
 
-    private Bitmap getBitmapFromDisk(String key) {
-        Bitmap bitmap = null;
+    private void loadMemoryManifest() {
+        File file = mDiskCache.getFile(MemoryManifest.DISK_CACHE_KEY);
+        if (file == null)
+            return;
+        List<MemoryManifest.Entry> entries;
+        InputStream input = null;
         try {
-            bitmap = mDiskCache.get(key);
-            if (bitmap != null) {
-                mLruCache.put(key, bitmap);
-            }
-        } catch (Exception e) {
+            input = new BufferedInputStream(new FileInputStream(file));
+            entries = MemoryManifest.read(input);
+        } catch (IOException e) {
             e.printStackTrace();
+            return;
+        } finally {
+            IOUtils.closeQuietly(input);
         }
-        return bitmap;
+
+        // The manifest is ordered from most to least recently used, so the budget goes to the most recently used first.
+        // A snapshot is checked rather than the cache itself, since a get() would change the access order.
+        Map<CacheKey, Bitmap> inMemory = mLruCache.snapshot();
+        List<CacheKey> selected = new ArrayList<CacheKey>();
+        long budget = getWarmStartSize();
+        for (MemoryManifest.Entry entry : entries) {
+            CacheKey key = entry.key;
+            // Smaller images further down may still fit
+            if (entry.byteCount > budget || inMemory.containsKey(key))
+                continue;
+            // Transformations can't be applied again from the manifest, so transformed images need their own variant
+            boolean onDisk = mDiskCache.contains(key.toFileName()) || (key.getTransformation() == null &&
+                    mDiskCache.contains(key.getOriginalKey().toFileName()));
+            if (!onDisk)
+                continue;
+            selected.add(key);
+            budget -= entry.byteCount;
+        }
+        // Put in from least to most recently used, so the memory cache ends up in the order it was saved in
+        int loaded = 0;
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            CacheKey key = selected.get(i);
+            if (getBitmapFromDisk(key, key.getSource(), key.getDimension(), null, false) != null)
+                loaded++;
+        }
+        if (DEBUG)
+            log("Loaded " + loaded + " of " + entries.size() + " images in the memory manifest.");
     }
 
-    private Bitmap getBitmapFromExternal(String key, String source, Dimension dimension) {
-        byte[] byteArray = sourceToBytes(source);
-        if (byteArray != null) {
-            Bitmap bitmap = Utils.decodeByteArray(byteArray, dimension);
-            if (bitmap != null) {
-                if (!source.startsWith("content") && !source.startsWith("file")) {
-                    // If the source is already from the local disk, don't cache it locally again.
-                    try {
-                        mDiskCache.put(key, bitmap);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+    private void registerMemoryCallbacks(Context context) {
+        Context app = context.getApplicationContext();
+        if (app == null)
+            app = context;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            mMemoryCallbacks = new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    trimMemory(level);
                 }
-                mLruCache.put(key, bitmap);
-                return bitmap;
-            }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+
+                @Override
+                public void onLowMemory() {
+                    clearMemory();
+                }
+            };
+            app.registerComponentCallbacks(mMemoryCallbacks);
         }
-        return null;
     }
 
-    private byte[] inputStreamToBytes(InputStream stream) {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try {
-            IOUtils.copy(stream, byteArrayOutputStream);
-        } catch (IOException e) {
-            IOUtils.closeQuietly(byteArrayOutputStream);
-            return null;
+    /**
+     * Releases everything the manager holds on to outside of itself: the memory callbacks and the connectivity
+     * receiver registered with the application, and the threads of its executors (queued loads are dropped, loads that are running are
+     * interrupted). The memory cache is cleared too. The manager can't be used anymore afterwards; apps that create a
+     * manager for a single screen, and tests, should call this when they're done with it, since the application
+     * context otherwise keeps it (and every image it cached) alive.
+     */
+    public void release() {
+        if (mMemoryCallbacks != null) {
+            Context app = context.getApplicationContext();
+            (app != null ? app : context).unregisterComponentCallbacks(mMemoryCallbacks);
+            mMemoryCallbacks = null;
         }
-        return byteArrayOutputStream.toByteArray();
+        mConnectivity.release();
+        // The warm start may still be posted
+        mHandler.removeCallbacksAndMessages(null);
+        mDiskExecutorService.shutdownNow();
+        mNetworkExecutorService.shutdownNow();
+        clearMemory();
     }
 
-    private byte[] sourceToBytes(String source) {
-        InputStream inputStream = null;
-        byte[] toreturn = null;
-        boolean shouldGetFallback = false;
+    /**
+     * Sets the maximum number of bytes the disk cache can use; once it grows past that, the least recently used images
+     * are deleted. Defaults to {@link DiskCache#DEFAULT_MAX_SIZE}.
+     */
+    public ImageManager setDiskCacheSize(long maxBytes) {
+        mDiskCache.setMaxSize(maxBytes);
+        return this;
+    }
 
-        try {
-            if (source.equals(ImageManager.SOURCE_FALLBACK)) {
-                if (fallbackImageId > 0)
-                    inputStream = context.getResources().openRawResource(fallbackImageId);
-                else return null;
-            } else if (source.startsWith("content")) { 
-				inputStream = context.getContentResolver().openInputStream(Uri.parse(source));
-            } else if (source.startsWith("file")) {
-                Uri uri = Uri.parse(source);
-                inputStream = new FileInputStream(new File(uri.getPath()));
-            } else {
-                inputStream = new URL(source).openConnection().getInputStream();
-            }
-            toreturn = inputStreamToBytes(inputStream);
-        } catch (Exception e) {
-            e.printStackTrace();
-            shouldGetFallback = true;
-        } finally {
-            IOUtils.closeQuietly(inputStream);
-        }
+    /**
+     * Sets whether or not the original bytes of downloaded images are stored in the disk cache. This is on by default:
+     * images are stored exactly as they were downloaded (no re-encoding, so transparency is kept) and images for every
+     * {@link Dimension} are decoded from them. When turned off, each downsampled image is re-encoded into the disk
+     * cache instead.
+     */
+    public ImageManager setCacheOriginals(boolean cacheOriginals) {
+        this.cacheOriginals = cacheOriginals;
+        return this;
+    }
 
-        if (shouldGetFallback && !source.equals(ImageManager.SOURCE_FALLBACK) && fallbackImageId > 0) {
-            try {
-                inputStream = context.getResources().openRawResource(fallbackImageId);
-                toreturn = inputStreamToBytes(inputStream);
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                IOUtils.closeQuietly(inputStream);
-            }
+    /**
+     * Sets whether or not downsampled images are also stored in the disk cache next to their original (see
+     * {@link #setCacheOriginals(boolean)}). This costs an encode and some disk space per {@link Dimension}, but makes
+     * loading a small image of a large original from the disk cache faster. Off by default.
+     */
+    public ImageManager setCacheVariants(boolean cacheVariants) {
+        this.cacheVariants = cacheVariants;
+        return this;
+    }
+
+    /**
+     * Sets the number of bytes of pixels that may be decoded at once, an eighth of the maximum heap size by default.
+     * Decodes that would go over it wait for others to finish first, which keeps a burst of large images from running
+     * the app out of memory. An image that's larger than the whole budget is still decoded, on its own.
+     */
+    public ImageManager setDecodeBudget(long maxBytes) {
+        mDecodeBudget.setMaxBytes(maxBytes);
+        return this;
+    }
+
+    /**
+     * Sets the pixel format images are decoded with when a request doesn't ask for one, see {@link DecodeConfig}.
+     * {@link DecodeConfig#PREFER_RGB_565} halves the memory of every opaque image, at the cost of some banding in
+     * smooth gradients. Only applies to images that are loaded after it's set.
+     */
+    public ImageManager setDecodeConfig(DecodeConfig decodeConfig) {
+        if (decodeConfig == null)
+            throw new IllegalArgumentException("The decode config cannot be null.");
+        mDecodeConfig = decodeConfig;
+        return this;
+    }
+
+    /**
+     * Sets the number of bytes of Bitmaps that are kept around for reuse after they're evicted from the memory cache.
+     * New images of the same size are decoded into those Bitmaps instead of allocating new ones, which saves a lot of
+     * garbage collection while scrolling through images of the same size. 0 (the default) turns reuse off.
+     * <p/>
+     * Bitmaps shown by the AImageView and AImageContactBadge are never reused while they're shown. Anything else that
+     * holds on to Bitmaps received from the ImageManager after they could have been evicted from the memory cache must
+     * mark them with {@link #retainBitmap(Bitmap)} while it does, since their pixels are overwritten when they're
+     * reused.
+     */
+    public ImageManager setBitmapPoolSize(int maxBytes) {
+        BitmapPool previous = mBitmapPool;
+        mBitmapPool = maxBytes > 0 ? new BitmapPool(maxBytes) : null;
+        if (previous != null)
+            previous.clear();
+        return this;
+    }
+
+    /**
+     * Marks a Bitmap received from the ImageManager as shown, so it isn't reused through the Bitmap pool (see
+     * {@link #setBitmapPoolSize(int)}) if it's evicted from the memory cache. Calls must be balanced with
+     * {@link #releaseBitmap(Bitmap)} once the Bitmap isn't shown anymore; the views of the library do this by
+     * themselves.
+     */
+    public void retainBitmap(Bitmap bitmap) {
+        if (bitmap == null)
+            return;
+        synchronized (mShownBitmaps) {
+            Integer count = mShownBitmaps.get(bitmap);
+            mShownBitmaps.put(bitmap, count != null ? count + 1 : 1);
         }
+    }
 
-        return toreturn;
+    public void releaseBitmap(Bitmap bitmap) {
+        if (bitmap == null)
+            return;
+        synchronized (mShownBitmaps) {
+            Integer count = mShownBitmaps.get(bitmap);
+            if (count == null || count <= 1)
+                mShownBitmaps.remove(bitmap);
+            else
+                mShownBitmaps.put(bitmap, count - 1);
+        }
     }
 
-    private static ExecutorService newConfiguredThreadPool() {
-        int corePoolSize = 0;
-        int maximumPoolSize = ASYNC_THREAD_COUNT;
-        long keepAliveTime = 60L;
-        TimeUnit unit = TimeUnit.SECONDS;
-        BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<Runnable>();
-        RejectedExecutionHandler handler = new ThreadPoolExecutor.CallerRunsPolicy();
-        return new ThreadPoolExecutor(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, handler);
+    private boolean isShown(Bitmap bitmap) {
+        synchronized (mShownBitmaps) {
+            return mShownBitmaps.containsKey(bitmap);
+        }
     }
 
-    private static LruCache<String, Bitmap> newConfiguredLruCache() {
-        return new LruCache<String, Bitmap>(MEM_CACHE_SIZE_KB * 1024) {
+    /**
+     * Sets a policy that rounds requested dimensions up to buckets, so that views of nearly the same size share a
+     * single cached image (e.g. {@link BucketPolicy.PowerOfTwo} or {@link BucketPolicy.Steps}). Null (the default)
+     * loads images for the exact dimensions that are requested.
+     */
+    public ImageManager setBucketPolicy(BucketPolicy policy) {
+        mBucketPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets whether or not downsampled images are scaled a second time so that they exactly cover the requested
+     * {@link Dimension}. By default, images are only downsampled by powers of two, which is cheaper but can leave
+     * them up to twice as large as the dimension.
+     */
+    public ImageManager setExactScale(boolean exactScale) {
+        this.exactScale = exactScale;
+        return this;
+    }
+
+    /**
+     * Sets the resource ID of fallback image that is used when an image can't be loaded, or when you call
+     * {@link com.afollestad.aimage.views.AImageView#showFallback()} from the AImageView.
+     */
+    public ImageManager setFallbackImage(int resourceId) {
+        this.fallbackImageId = resourceId;
+        return this;
+    }
+
+    /**
+     * Gets an image from a URI on the thread (Android doesn't allow this on the main UI thread) and returns the result.
+     *
+     * @param source   The URI to get the image from.
+     */
+    public Bitmap get(String source, Dimension dimension) {
+        return get(source, dimension, null);
+    }
+
+    /**
+     * The same as {@link #get(String, Dimension)}, but the image is transformed (e.g. cropped or blurred) before it's
+     * cached and returned. Transformations are applied in order, the transformed image is cached on its own.
+     *
+     * @param transformations The transformations to apply, or null.
+     */
+    public Bitmap get(String source, Dimension dimension, List<Transformation> transformations) {
+        return get(source, dimension, transformations, null);
+    }
+
+    /**
+     * The same as {@link #get(String, Dimension, List)}, but the image is decoded with its own pixel format instead
+     * of the one set with {@link #setDecodeConfig(DecodeConfig)}. It's cached on its own.
+     *
+     * @param decodeConfig The pixel format to decode with, or null to use the default.
+     */
+    public Bitmap get(String source, Dimension dimension, List<Transformation> transformations,
+                      DecodeConfig decodeConfig) {
+        if (source == null) {
+            return null;
+        }
+        dimension = bucket(dimension);
+        CacheKey key = new CacheKey(source, dimension, getTransformationId(transformations), decodeConfig);
+        Bitmap bitmap = getFromMemory(key);
+        if (bitmap != null) {
+            mMetrics.increment(Counter.MEMORY_HIT);
+            if (DEBUG)
+                log("Got " + source + " from the memory cache.");
+            return bitmap;
+        }
+        mMetrics.increment(Counter.MEMORY_MISS);
+        // Local sources are decoded straight from where they're stored, they never go through the disk cache
+        if (!isLocalSource(source)) {
+            bitmap = getBitmapFromDisk(key, source, dimension, transformations, false);
+            mMetrics.increment(bitmap != null ? Counter.DISK_HIT : Counter.DISK_MISS);
+        }
+        if (bitmap == null) {
+            bitmap = getBitmapFromExternal(key, source, dimension, transformations);
+            if (DEBUG)
+                log("Got " + source + " from the external source.");
+        } else if (DEBUG) {
+            log("Got " + source + " from the disk cache.");
+        }
+        return bitmap;
+    }
+
+    /**
+     * Gets an image from the memory cache only, without ever blocking or touching the disk, so it can be used on the
+     * main UI thread to show images that are already loaded immediately. Returns null if the image isn't in memory.
+     */
+    public Bitmap getFromMemory(String source, Dimension dimension) {
+        return getFromMemory(source, dimension, null);
+    }
+
+    /**
+     * The same as {@link #getFromMemory(String, Dimension)}, for an image that's requested with transformations.
+     */
+    public Bitmap getFromMemory(String source, Dimension dimension, List<Transformation> transformations) {
+        return getFromMemory(source, dimension, transformations, null);
+    }
+
+    /**
+     * The same as {@link #getFromMemory(String, Dimension)}, for an image that's requested with transformations and
+     * its own pixel format.
+     */
+    public Bitmap getFromMemory(String source, Dimension dimension, List<Transformation> transformations,
+                                DecodeConfig decodeConfig) {
+        if (source == null) {
+            return null;
+        }
+        Bitmap bitmap = getFromMemory(new CacheKey(source, bucket(dimension), getTransformationId(transformations),
+                decodeConfig));
+        // Misses aren't counted, they're always followed by a request that counts them
+        if (bitmap != null)
+            mMetrics.increment(Counter.MEMORY_HIT);
+        return bitmap;
+    }
+
+    /**
+     * Gets the image for a key from the memory cache, or the smallest image of the same source in memory that's
+     * larger than the key's dimension.
+     */
+    private Bitmap getFromMemory(CacheKey key) {
+        LruCache<CacheKey, Bitmap> cache = mLruCache;
+        Bitmap bitmap = cache.get(key);
+        if (bitmap == null) {
+            CacheKey larger = mVariantIndex.findLarger(key);
+            if (larger != null)
+                bitmap = cache.get(larger);
+        }
+        if (bitmap == null) {
+            bitmap = mSoftCache.remove(key);
+            if (bitmap != null) {
+                // Evicted, but not reclaimed yet; it's recently used again so it goes back into the main tier
+                mMetrics.increment(Counter.SOFT_REFERENCE_HIT);
+                putInMemory(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Stores an image in the memory cache, and indexes its size so it can serve requests for smaller images too.
+     */
+    private void putInMemory(CacheKey key, Bitmap bitmap) {
+        // Indexed first, so an eviction that happens as soon as it's put also removes it from the index
+        mVariantIndex.add(key, bitmap);
+        synchronized (mMemoryCacheLock) {
+            mLruCache.put(key, bitmap);
+        }
+        mMemoryChanged = true;
+    }
+
+    private Dimension bucket(Dimension dimension) {
+        BucketPolicy policy = mBucketPolicy;
+        if (policy == null || dimension == null || dimension.isZero())
+            return dimension;
+        return policy.bucket(dimension);
+    }
+
+    /**
+     * Gets an image from a URI on a separate thread and posts the results to a callback, with
+     * {@link Priority#VISIBLE} priority.
+     *
+     * @param source   The URI to get the image from.
+     * @param callback The callback that the result will be posted to.
+     * @return A handle that can be used to cancel the request, or null if the source is null.
+     */
+    public LoadHandle get(String source, ImageListener callback, Dimension dimension) {
+        return get(source, callback, dimension, Priority.VISIBLE);
+    }
+
+    /**
+     * Gets an image from a URI on a separate thread and posts the results to a callback.
+     *
+     * @param source   The URI to get the image from.
+     * @param callback The callback that the result will be posted to.
+     * @param priority The priority of the request; queued work for higher priority requests is done first.
+     * @return A handle that can be used to cancel or reprioritize the request, or null if the source is null.
+     */
+    public LoadHandle get(String source, ImageListener callback, Dimension dimension, Priority priority) {
+        return get(source, callback, dimension, null, priority);
+    }
+
+    /**
+     * Gets a transformed image on a separate thread and posts the result to a callback, with {@link Priority#VISIBLE}
+     * priority. See {@link #get(String, Dimension, List)}.
+     */
+    public LoadHandle get(String source, ImageListener callback, Dimension dimension,
+                          List<Transformation> transformations) {
+        return get(source, callback, dimension, transformations, Priority.VISIBLE);
+    }
+
+    /**
+     * Gets a transformed image on a separate thread and posts the result to a callback. See
+     * {@link #get(String, Dimension, List)}.
+     *
+     * @param transformations The transformations to apply, or null.
+     * @param priority        The priority of the request; queued work for higher priority requests is done first.
+     * @return A handle that can be used to cancel or reprioritize the request, or null if the source is null.
+     */
+    public LoadHandle get(String source, ImageListener callback, Dimension dimension,
+                          List<Transformation> transformations, Priority priority) {
+        return get(source, callback, dimension, transformations, null, priority);
+    }
+
+    /**
+     * Gets an image on a separate thread and posts the result to a callback. See
+     * {@link #get(String, Dimension, List, DecodeConfig)}.
+     *
+     * @param transformations The transformations to apply, or null.
+     * @param decodeConfig    The pixel format to decode with, or null to use the default.
+     * @param priority        The priority of the request; queued work for higher priority requests is done first.
+     * @return A handle that can be used to cancel or reprioritize the request, or null if the source is null.
+     */
+    public LoadHandle get(final String source, final ImageListener callback, Dimension dimension,
+                          List<Transformation> transformations, DecodeConfig decodeConfig, Priority priority) {
+    	if (!Looper.getMainLooper().equals(Looper.myLooper())) {
+            throw new RuntimeException("This must only be executed on the main UI Thread!");
+        } else if (source == null) {
+            return null;
+        }
+        dimension = bucket(dimension);
+        CacheKey key = new CacheKey(source, dimension, getTransformationId(transformations), decodeConfig);
+        return load(source, key, callback, dimension, transformations, priority);
+    }
+
+    /**
+     * Gets many images at once on separate threads, with {@link Priority#VISIBLE} priority. Each image is posted to
+     * the listener as soon as it's loaded, and all of them are posted together in the order they were requested once
+     * the last one is in. Sources that are in the list more than once are only loaded once. Must be called from the
+     * main UI thread.
+     *
+     * @return Handles for the requests of the distinct sources, in the order they're first requested.
+     */
+    public List<LoadHandle> getAll(List<String> sources, Dimension dimension, BatchListener listener) {
+        if (!Looper.getMainLooper().equals(Looper.myLooper()))
+            throw new RuntimeException("This must only be executed on the main UI Thread!");
+        return loadAll(sources, dimension, Priority.VISIBLE, listener);
+    }
+
+    /**
+     * Gets many images at once and returns them in the order they were requested (null for those that couldn't be
+     * loaded). The images are loaded in parallel like with {@link #getAll(List, Dimension, BatchListener)}, instead of
+     * one at a time like when calling {@link #get(String, Dimension)} in a loop. Results are delivered through the main
+     * thread, so this can't be called from it. Returns null if the thread is interrupted while waiting, the requests are
+     * cancelled then.
+     */
+    public List<Bitmap> getAll(List<String> sources, Dimension dimension) {
+        if (Looper.getMainLooper().equals(Looper.myLooper()))
+            throw new RuntimeException("This must not be executed on the main UI Thread!");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<List<Bitmap>> results = new AtomicReference<List<Bitmap>>();
+        List<LoadHandle> handles = loadAll(sources, dimension, Priority.VISIBLE, new BatchListener() {
+            @Override
+            public void onImageReceived(String source, Bitmap bitmap) {
+            }
+
+            @Override
+            public void onBatchReceived(List<Bitmap> bitmaps) {
+                results.set(bitmaps);
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            for (LoadHandle handle : handles)
+                handle.cancel();
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return results.get();
+    }
+
+    /**
+     * Requests every distinct source of a batch once. Sources in the memory cache are delivered right away; the rest
+     * are queued in reverse, so they start in the order they were requested (work of the same priority is executed
+     * last-in-first-out). Disk cache hits don't wait behind downloads either way: every load starts with a disk
+     * lookup, and misses leave the disk threads for the network threads as soon as the lookup is done. The lookups
+     * themselves aren't made here, since this is called from the main thread.
+     */
+    private List<LoadHandle> loadAll(List<String> sources, Dimension dimension, Priority priority,
+                                     final BatchListener listener) {
+        dimension = bucket(dimension);
+        final Bitmap[] results = new Bitmap[sources.size()];
+        final Map<String, List<Integer>> positions = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < sources.size(); i++) {
+            String source = sources.get(i);
+            if (source == null)
+                continue;
+            List<Integer> indices = positions.get(source);
+            if (indices == null) {
+                indices = new ArrayList<Integer>(1);
+                positions.put(source, indices);
+            }
+            indices.add(i);
+        }
+        if (positions.isEmpty()) {
+            mHandler.post(new Runnable() {
+                public void run() {
+                    listener.onBatchReceived(Arrays.asList(results));
+                }
+            });
+            return new ArrayList<LoadHandle>(0);
+        }
+
+        List<String> order = new ArrayList<String>(positions.keySet());
+        Collections.reverse(order);
+
+        // Only touched on the main thread, where every result is delivered
+        final int[] remaining = {positions.size()};
+        Map<String, LoadHandle> handles = new HashMap<String, LoadHandle>();
+        for (String source : order) {
+            final List<Integer> indices = positions.get(source);
+            handles.put(source, load(source, new CacheKey(source, dimension), new ImageListener() {
+                @Override
+                public void onImageReceived(String source, Bitmap bitmap) {
+                    for (int index : indices)
+                        results[index] = bitmap;
+                    listener.onImageReceived(source, bitmap);
+                    if (--remaining[0] == 0)
+                        listener.onBatchReceived(Arrays.asList(results));
+                }
+            }, dimension, null, priority));
+        }
+        List<LoadHandle> ordered = new ArrayList<LoadHandle>(handles.size());
+        for (String source : positions.keySet())
+            ordered.add(handles.get(source));
+        return ordered;
+    }
+
+    /**
+     * Delivers an image from the memory cache, or starts loading it if it's not in memory. Can be called from any
+     * thread, the result is always posted to the main thread.
+     */
+    private LoadHandle load(final String source, CacheKey key, ImageListener callback, Dimension dimension,
+                            List<Transformation> transformations, Priority priority) {
+        mMetrics.increment(Counter.REQUEST);
+        final Bitmap bitmap = getFromMemory(key);
+        if (bitmap != null) {
+            mMetrics.increment(Counter.MEMORY_HIT);
+            if (DEBUG)
+                log("Got " + source + " from the memory cache.");
+            final LoadHandle handle = new LoadHandle(this, null, callback);
+            mHandler.post(new Runnable() {
+                public void run() {
+                    handle.deliver(source, bitmap);
+                }
+            });
+            return handle;
+        }
+
+        mMetrics.increment(Counter.MEMORY_MISS);
+        return enqueue(source, key, callback, dimension, transformations, priority, true);
+    }
+
+    /**
+     * Prefetches images that are expected to be needed soon (e.g. items a few screens ahead in a list) into the disk
+     * cache with {@link Priority#PREFETCH} priority, so they're quick to load once they are needed. Images that are
+     * already in the memory or disk cache are skipped. Must be called from the main UI thread.
+     *
+     * @param dimension The dimension the images will be requested with later.
+     * @return Handles for the prefetches that were started, which can be cancelled if they're no longer needed.
+     */
+    public List<LoadHandle> prefetch(Collection<String> sources, Dimension dimension) {
+        return prefetch(sources, dimension, false);
+    }
+
+    /**
+     * The same as {@link #prefetch(Collection, Dimension)}, but can also decode the images into the memory cache so
+     * they can be shown without touching the disk once they're needed. Without warmMemory, downloaded images aren't
+     * decoded at all unless downsampled images are cached on disk instead of originals (see
+     * {@link #setCacheOriginals(boolean)}).
+     */
+    public List<LoadHandle> prefetch(Collection<String> sources, Dimension dimension, boolean warmMemory) {
+        if (!Looper.getMainLooper().equals(Looper.myLooper())) {
+            throw new RuntimeException("This must only be executed on the main UI Thread!");
+        }
+        dimension = bucket(dimension);
+        List<LoadHandle> handles = new ArrayList<LoadHandle>(sources.size());
+        for (String source : sources) {
+            if (source == null)
+                continue;
+            CacheKey key = new CacheKey(source, dimension);
+            if (getFromMemory(key) != null)
+                continue;
+            LoadHandle handle = enqueue(source, key, null, dimension, null, Priority.PREFETCH, warmMemory || !cacheOriginals);
+            if (!handle.isDone())
+                handles.add(handle);
+        }
+        return handles;
+    }
+
+    /**
+     * Gets the width and height of the original image of a source without decoding it, downloading it into the disk
+     * cache first if it isn't there yet. Can't be used on the main UI thread. Returns null if it couldn't be loaded.
+     */
+    public Dimension getImageSize(String source) {
+        if (Looper.getMainLooper().equals(Looper.myLooper()))
+            throw new RuntimeException("This must not be executed on the main UI Thread!");
+        BitmapRegionDecoder decoder = getRegionDecoder(source);
+        return decoder != null ? RegionDecoderCache.getSize(decoder) : null;
+    }
+
+    /**
+     * Gets the size of the original image of a source on a separate thread and posts it to a listener, see
+     * {@link #getImageSize(String)}. Must be called from the main UI thread.
+     */
+    public void getImageSize(final String source, final ImageSizeListener listener) {
+        if (!Looper.getMainLooper().equals(Looper.myLooper()))
+            throw new RuntimeException("This must only be executed on the main UI Thread!");
+        submitRegionWork(source, null, new Runnable() {
+            @Override
+            public void run() {
+                final Dimension size = getImageSize(source);
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        listener.onImageSizeReceived(source, size);
+                    }
+                });
+            }
+        }, Priority.VISIBLE);
+    }
+
+    /**
+     * Decodes a rectangle of the original image of a source, without ever decoding the rest of the image; so parts of
+     * images that are far larger than the heap can be shown. The original is downloaded into the disk cache first if
+     * it isn't there yet. Can't be used on the main UI thread, and needs Android 2.3.3 or later. Returns null if the
+     * region couldn't be decoded.
+     *
+     * @param region     The rectangle to decode in pixels of the original image, it's clipped to the image's bounds.
+     * @param sampleSize The factor the region is downsampled by, a power of two; 1 decodes it at full resolution.
+     */
+    public Bitmap getRegion(String source, Rect region, int sampleSize) {
+        if (Looper.getMainLooper().equals(Looper.myLooper()))
+            throw new RuntimeException("This must not be executed on the main UI Thread!");
+        BitmapRegionDecoder decoder = getRegionDecoder(source);
+        if (decoder == null)
+            return null;
+        Dimension size = RegionDecoderCache.getSize(decoder);
+        Rect clipped = new Rect(region);
+        if (size == null || !clipped.intersect(0, 0, size.getWidth(), size.getHeight()))
+            return null;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        // Regions are decoded with the default decode config, like full images
+        if (mDecodeConfig == DecodeConfig.PREFER_RGB_565 && mRegionDecoders.isOpaque(source)) {
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            options.inDither = true;
+        }
+        // Reserved for the region that's actually decoded, e.g. a tile at the edge of the image is smaller
+        int sample = Math.max(1, sampleSize);
+        long bytes = DecodeBudget.getByteCount((clipped.width() + sample - 1) / sample,
+                (clipped.height() + sample - 1) / sample, options.inPreferredConfig);
+        try {
+            mDecodeBudget.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            long start = mMetrics.now();
+            Bitmap bitmap = RegionDecoderCache.decodeRegion(decoder, clipped, options);
+            if (bitmap != null)
+                mMetrics.recordSince(Timing.DECODE, start);
+            return bitmap;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            mDecodeBudget.release(bytes);
+        }
+    }
+
+    /**
+     * Gets a tile of the original image of a source from the tile cache, decoding it with
+     * {@link #getRegion(String, Rect, int)} if it isn't cached. At a level (a power of two), the image is downsampled
+     * by that level and split into a grid of {@link #TILE_SIZE} pixel squares; tiles in the last column and row may be
+     * smaller. Can't be used on the main UI thread.
+     */
+    public Bitmap getTile(String source, int level, int column, int row) {
+        if (Looper.getMainLooper().equals(Looper.myLooper()))
+            throw new RuntimeException("This must not be executed on the main UI Thread!");
+        if (level < 1 || (level & (level - 1)) != 0)
+            throw new IllegalArgumentException("The level of a tile must be a power of two, got " + level + ".");
+        CacheKey key = getTileKey(source, level, column, row);
+        Bitmap tile = mTileCache.get(key);
+        if (tile != null)
+            return tile;
+        int size = TILE_SIZE * level;
+        tile = getRegion(source, new Rect(column * size, row * size, (column + 1) * size, (row + 1) * size), level);
+        if (tile != null)
+            mTileCache.put(key, tile);
+        return tile;
+    }
+
+    /**
+     * Gets a tile on a separate thread and posts it to a callback, see {@link #getTile(String, int, int, int)}. Tile
+     * loads are deduplicated like other requests. Must be called from the main UI thread.
+     *
+     * @return A handle that can be used to cancel or reprioritize the request.
+     */
+    public LoadHandle getTile(final String source, final int level, final int column, final int row,
+                              ImageListener callback, Priority priority) {
+        if (!Looper.getMainLooper().equals(Looper.myLooper()))
+            throw new RuntimeException("This must only be executed on the main UI Thread!");
+        final CacheKey key = getTileKey(source, level, column, row);
+        final Bitmap cached = mTileCache.get(key);
+        if (cached != null) {
+            final LoadHandle handle = new LoadHandle(this, null, callback);
+            mHandler.post(new Runnable() {
+                public void run() {
+                    handle.deliver(source, cached);
+                }
+            });
+            return handle;
+        }
+
+        final PendingLoad pending;
+        final LoadHandle handle;
+        synchronized (mPendingLoads) {
+            PendingLoad existing = mPendingLoads.get(key);
+            if (existing != null) {
+                handle = new LoadHandle(this, existing, callback);
+                existing.addHandle(handle);
+                existing.prioritize(priority);
+                return handle;
+            }
+            pending = new PendingLoad(source, key, null, priority, true);
+            handle = new LoadHandle(this, pending, callback);
+            pending.addHandle(handle);
+            mPendingLoads.put(key, pending);
+        }
+        pending.setTask(submitRegionWork(source, pending, new Runnable() {
+            @Override
+            public void run() {
+                if (pending.isCancelled())
+                    return;
+                pending.setDecodeAttempted();
+                Bitmap tile = getTile(source, level, column, row);
+                if (!pending.isCancelled())
+                    deliver(pending, tile);
+            }
+        }, priority));
+        return handle;
+    }
+
+    /**
+     * Tiles are cached under the key of their source with a transformation that names the level and grid cell.
+     */
+    private static CacheKey getTileKey(String source, int level, int column, int row) {
+        return new CacheKey(source, null, "tile:" + level + ":" + column + ":" + row);
+    }
+
+    /**
+     * Queues work that needs the region decoder of a source. It runs on a disk thread, or is handed to a network
+     * thread there if the original still has to be downloaded; that's decided on the disk thread, since it reads the
+     * disk cache's index.
+     *
+     * @param pending The load the work is for, which keeps track of the task it's running on; or null.
+     */
+    private PriorityExecutor.Task submitRegionWork(final String source, final PendingLoad pending, final Runnable work,
+                                                   final Priority priority) {
+        return mDiskExecutorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (pending != null && pending.isCancelled())
+                    return;
+                boolean download = source.startsWith("http") && !mRegionDecoders.contains(source) &&
+                        !mDiskCache.contains(new CacheKey(source, null).toFileName());
+                if (!download) {
+                    work.run();
+                } else if (pending != null) {
+                    pending.setTask(mNetworkExecutorService.submit(work, pending.getPriority()));
+                } else {
+                    mNetworkExecutorService.submit(work, priority);
+                }
+            }
+        }, priority);
+    }
+
+    /**
+     * Gets the open region decoder of a source, or opens one.
+     */
+    private BitmapRegionDecoder getRegionDecoder(String source) {
+        if (source == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1)
+            return null;
+        BitmapRegionDecoder decoder = mRegionDecoders.get(source);
+        if (decoder != null)
+            return decoder;
+        ReentrantLock lock = mRegionDecoderLocks[(source.hashCode() & Integer.MAX_VALUE) % mRegionDecoderLocks.length];
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            // The request was cancelled while another one was opening the decoder
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            decoder = mRegionDecoders.get(source);
+            if (decoder != null)
+                return decoder;
+            return openRegionDecoder(source);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ReentrantLock[] newLocks(int count) {
+        ReentrantLock[] locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++)
+            locks[i] = new ReentrantLock();
+        return locks;
+    }
+
+    /**
+     * Opens a region decoder for the original image of a source and adds it to the decoder cache: from where it's
+     * stored for local sources, otherwise from the disk cache, downloading it first if it's not there. A copy in the
+     * disk cache is used even if it's stale.
+     */
+    private BitmapRegionDecoder openRegionDecoder(String source) throws IOException {
+        CacheKey key = new CacheKey(source, null);
+        if (!isLocalSource(source)) {
+            File original = mDiskCache.getFile(key.toFileName());
+            if (original != null)
+                return openRegionDecoder(source, original.getAbsolutePath());
+        }
+        if (source.startsWith("http")) {
+            // Stored even if originals aren't cached otherwise, so the decoder can be opened again later (it's closed
+            // when it's evicted or memory is trimmed) without downloading the whole image again
+            Download download = download(key, source, true);
+            try {
+                if (download.error != null)
+                    return null;
+                File file = download.notModified ? mDiskCache.getFile(key.toFileName()) : download.file;
+                // A temporary file (the server said not to store it) is deleted once the decoder has read it
+                return file != null ? openRegionDecoder(source, file.getAbsolutePath()) : null;
+            } finally {
+                download.close();
+            }
+        }
+        SourceLoader.Result result = getSourceLoader(source).open(source);
+        if (result == null)
+            return null;
+        try {
+            if (result.getPath() != null)
+                return openRegionDecoder(source, result.getPath());
+            boolean opaque;
+            BitmapRegionDecoder decoder;
+            if (result.getFileDescriptor() != null) {
+                opaque = Utils.isOpaque(result.getFileDescriptor());
+                decoder = BitmapRegionDecoder.newInstance(result.getFileDescriptor(), false);
+            } else {
+                InputStream input = result.openStream();
+                if (!input.markSupported())
+                    input = new BufferedInputStream(input, ImageHeader.LENGTH);
+                opaque = Utils.isOpaque(input);
+                decoder = BitmapRegionDecoder.newInstance(input, false);
+            }
+            return decoder != null ? mRegionDecoders.put(source, decoder, opaque) : null;
+        } finally {
+            IOUtils.closeQuietly(result);
+        }
+    }
+
+    private BitmapRegionDecoder openRegionDecoder(String source, String path) throws IOException {
+        // The header is only read once per decoder, so regions know whether they can be decoded as RGB_565
+        boolean opaque = Utils.isOpaque(path);
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(path, false);
+        return decoder != null ? mRegionDecoders.put(source, decoder, opaque) : null;
+    }
+
+    /**
+     * Attaches a request to the pending load for its key, starting the load if there isn't one yet.
+     *
+     * @param decode Whether or not the request needs the decoded image; if not, the load only makes sure the image is
+     *               in the disk cache (unless a request that does need it attaches later).
+     */
+    private LoadHandle enqueue(final String source, final CacheKey key, ImageListener callback, final Dimension dimension,
+                               final List<Transformation> transformations, Priority priority, boolean decode) {
+        final PendingLoad pending;
+        final LoadHandle handle;
+        synchronized (mPendingLoads) {
+            PendingLoad existing = mPendingLoads.get(key);
+            if (existing != null) {
+                // An identical load is already in flight, its result will be delivered to this callback too
+                handle = new LoadHandle(this, existing, callback);
+                existing.addHandle(handle);
+                existing.prioritize(priority);
+                if (decode)
+                    existing.requireDecode();
+                mMetrics.increment(Counter.DEDUPED_REQUEST);
+                if (DEBUG)
+                    log("Attached to the pending load of " + source + ".");
+                return handle;
+            }
+            pending = new PendingLoad(source, key, dimension, transformations, priority, decode);
+            handle = new LoadHandle(this, pending, callback);
+            pending.addHandle(handle);
+            mPendingLoads.put(key, pending);
+        }
+
+        pending.setTask(mDiskExecutorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (pending.isCancelled())
+                    return;
+                if (isLocalSource(source)) {
+                    // Decoded straight from where it's stored on the device, it never goes through the disk cache
+                    pending.setDecodeAttempted();
+                    Bitmap bitmap = getBitmapFromExternal(key, source, dimension, transformations);
+                    if (!pending.isCancelled())
+                        deliver(pending, bitmap);
+                    return;
+                }
+                if (!pending.shouldDecode()) {
+                    if (isOnDisk(key, false)) {
+                        mMetrics.increment(Counter.DISK_HIT);
+                        if (DEBUG)
+                            log(source + " is already in the disk cache.");
+                        deliver(pending, null);
+                        return;
+                    }
+                } else {
+                    pending.setDecodeAttempted();
+                    final Bitmap bitmap = getBitmapFromDisk(key, source, dimension, transformations, false);
+                    if (bitmap != null) {
+                        mMetrics.increment(Counter.DISK_HIT);
+                        if (DEBUG)
+                            log("Got " + source + " from the disk cache.");
+                        deliver(pending, bitmap);
+                        return;
+                    }
+                }
+                mMetrics.increment(Counter.DISK_MISS);
+
+                if (source.startsWith("http") && !mConnectivity.isOnline()) {
+                    // A stale copy can't be revalidated right now, but it's better than waiting or the fallback image
+                    Bitmap bitmap = pending.shouldDecode() ?
+                            getBitmapFromDisk(key, source, dimension, transformations, true) : null;
+                    if (bitmap != null) {
+                        deliver(pending, bitmap);
+                        return;
+                    } else if (parkOfflineRequests) {
+                        if (park(pending)) {
+                            if (DEBUG)
+                                log("Device is offline, waiting for a connection to load " + source + ".");
+                            return;
+                        }
+                    } else {
+                        log("Device is offline, getting fallback image...");
+                        if (pending.shouldDecode())
+                            bitmap = get(ImageManager.SOURCE_FALLBACK, dimension);
+                        pending.setDecodeAttempted();
+                        deliver(pending, bitmap);
+                        return;
+                    }
+                }
+
+                if (pending.isCancelled())
+                    return;
+                startNetworkLoad(pending);
+            }
+        }, priority));
+        return handle;
+    }
+
+    /**
+     * Queues the network part of a load, once it's known that the disk cache can't serve it.
+     */
+    private void startNetworkLoad(final PendingLoad pending) {
+        final String source = pending.getSource();
+        pending.setTask(mNetworkExecutorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (pending.isCancelled())
+                    return;
+                if (!pending.shouldDecode() && cacheOriginals && source.startsWith("http")) {
+                    boolean downloaded = downloadToDisk(source);
+                    if (pending.isCancelled())
+                        return;
+                    if (downloaded || !pending.shouldDecode()) {
+                        // A request that needs the image may have attached meanwhile, deliver() decodes it for it
+                        deliver(pending, null);
+                        return;
+                    }
+                    // A request that needs the image attached, but the download failed or the server said not to
+                    // store it; there's nothing on disk to decode, so it's downloaded for display instead
+                }
+                if (source.startsWith("http")) {
+                    pending.setDecodeAttempted();
+                    decodeLater(pending, download(pending.getKey(), source));
+                    return;
+                }
+                pending.setDecodeAttempted();
+                Bitmap bitmap = getBitmapFromExternal(pending.getKey(), source, pending.getDimension(),
+                        pending.getTransformations());
+                if (pending.isCancelled())
+                    return;
+                if (DEBUG)
+                    log("Got " + source + " from external source.");
+                deliver(pending, bitmap);
+            }
+        }, pending.getPriority()));
+    }
+
+    /**
+     * Queues the decode of a download on the disk threads, so the network thread is free to start the next download
+     * while it's decoded.
+     */
+    private void decodeLater(final PendingLoad pending, final Download download) {
+        // Closed by the load if it's cancelled before the decode gets to it
+        pending.setResource(download);
+        pending.setTask(mDiskExecutorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (pending.isCancelled())
+                    return;
+                Bitmap bitmap = decodeDownload(pending.getKey(), pending.getSource(), pending.getDimension(),
+                        pending.getTransformations(), download);
+                if (pending.isCancelled())
+                    return;
+                if (DEBUG)
+                    log("Got " + pending.getSource() + " from external source.");
+                deliver(pending, bitmap);
+            }
+        }, pending.getPriority()));
+    }
+
+    /**
+     * Holds on to a network load while the device is offline, until {@link #onConnectivityChanged(boolean, boolean)}
+     * replays it. Returns false if the device came back online in the meantime, and the load should start now.
+     */
+    private boolean park(PendingLoad pending) {
+        synchronized (mParkedLoads) {
+            // Checked under the lock, so the load is either seen here as online or replayed when the device is
+            if (mConnectivity.isOnline())
+                return false;
+            mParkedLoads.add(pending);
+            return true;
+        }
+    }
+
+    private void onConnectivityChanged(boolean online, boolean metered) {
+        if (DEBUG)
+            log("Connectivity changed, online: " + online + ", metered: " + metered);
+        updateNetworkThreadCount(metered);
+        if (!online)
+            return;
+        List<PendingLoad> parked;
+        synchronized (mParkedLoads) {
+            parked = new ArrayList<PendingLoad>(mParkedLoads);
+            mParkedLoads.clear();
+        }
+        for (PendingLoad pending : parked) {
+            if (!pending.isCancelled()) {
+                if (DEBUG)
+                    log("Back online, loading " + pending.getSource() + ".");
+                startNetworkLoad(pending);
+            }
+        }
+    }
+
+    private void updateNetworkThreadCount(boolean metered) {
+        int count = meteredThreadCount;
+        mNetworkExecutorService.setThreadCount(metered && count > 0 ? count : ASYNC_THREAD_COUNT);
+    }
+
+    /**
+     * Called by a {@link LoadHandle} when it's cancelled. Once no handles are left attached to the load, the load is
+     * removed from the pending table, its queued work is removed from the executors, and running work is interrupted.
+     */
+    void cancel(PendingLoad pending, LoadHandle handle) {
+        synchronized (mPendingLoads) {
+            if (!pending.removeHandle(handle))
+                return;
+            if (mPendingLoads.get(pending.getKey()) == pending)
+                mPendingLoads.remove(pending.getKey());
+        }
+        pending.cancel();
+        synchronized (mParkedLoads) {
+            mParkedLoads.remove(pending);
+        }
+        if (DEBUG)
+            log("Cancelled the load of " + pending.getSource() + ".");
+    }
+
+    /**
+     * Gets the path to a locally cached file based on the original source and view dimensions used to load it. The
+     * downsampled image for the dimension is only cached with {@link #setCacheVariants(boolean)} or without
+     * {@link #setCacheOriginals(boolean)}; if it isn't, the path of the original image is returned instead. Returns
+     * null if neither is in the disk cache.
+     */
+    public String getCachedPath(String originalSource, Dimension dimen) {
+        CacheKey key = new CacheKey(originalSource, bucket(dimen));
+        File file = mDiskCache.getFile(key.toFileName());
+        if (file == null && key.getOriginalKey() != key)
+            file = mDiskCache.getFile(key.getOriginalKey().toFileName());
+        return file != null ? file.getPath() : null;
+    }
+
+    /**
+     * Completes a pending load, posting its result to every listener that was attached to it. Requests made after
+     * this point will start a new load (or hit the memory cache) instead of attaching to this one.
+     */
+    private void deliver(final PendingLoad pending, Bitmap bitmap) {
+        boolean decodeFirst = false;
+        synchronized (mPendingLoads) {
+            if (bitmap == null && pending.shouldDecode() && !pending.isDecodeAttempted()) {
+                // A request that needs the image attached to a prefetch while it was only being cached on disk
+                decodeFirst = true;
+            } else if (mPendingLoads.get(pending.getKey()) == pending) {
+                mPendingLoads.remove(pending.getKey());
+            }
+        }
+        if (decodeFirst) {
+            // Decoded on the disk threads, this may be called from a network thread
+            pending.setDecodeAttempted();
+            pending.setTask(mDiskExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (pending.isCancelled())
+                        return;
+                    Bitmap decoded = getBitmapFromDisk(pending.getKey(), pending.getSource(), pending.getDimension(),
+                            pending.getTransformations(), true);
+                    if (decoded == null && !pending.getSource().equals(ImageManager.SOURCE_FALLBACK) &&
+                            fallbackImageId > 0)
+                        decoded = get(ImageManager.SOURCE_FALLBACK, pending.getDimension());
+                    if (!pending.isCancelled())
+                        deliver(pending, decoded);
+                }
+            }, pending.getPriority()));
+            return;
+        }
+
+        final Bitmap result = bitmap;
+        final List<LoadHandle> handles = pending.getHandles();
+        mHandler.post(new Runnable() {
+            public void run() {
+                for (LoadHandle handle : handles)
+                    handle.deliver(pending.getSource(), result);
+            }
+        });
+    }
+
+    /**
+     * Returns true if the disk cache has the image for a key, or the original image of its source, without reading
+     * the file system.
+     *
+     * @param allowStale Whether or not a downloaded image that has to be revalidated with its server counts.
+     */
+    private boolean isOnDisk(CacheKey key, boolean allowStale) {
+        if (!allowStale && isStale(key))
+            return false;
+        return mDiskCache.contains(key.toFileName()) ||
+                (cacheOriginals && mDiskCache.contains(key.getOriginalKey().toFileName()));
+    }
+
+    /**
+     * Gets the name of the disk cache entry that a download for a key is stored in, and that carries its caching
+     * headers: the original image, or the variant itself when originals aren't cached.
+     */
+    private String getDownloadEntry(CacheKey key) {
+        return (cacheOriginals ? key.getOriginalKey() : key).toFileName();
+    }
+
+    private CacheHeaders getCacheHeaders(String entry) {
+        return CacheHeaders.parse(mDiskCache.getMetadata(entry));
+    }
+
+    /**
+     * Returns true if the cached download for a key is past the freshness lifetime its server gave it. Images cached
+     * without any caching headers (e.g. by older versions) never go stale.
+     */
+    private boolean isStale(CacheKey key) {
+        CacheHeaders headers = getCacheHeaders(getDownloadEntry(key));
+        return headers != null && headers.isStale(System.currentTimeMillis());
+    }
+
+    /**
+     * Looks for an image in the disk cache: first the variant that was cached for the dimension and transformations,
+     * then (if originals are cached) the original image, which is downsampled to the dimension and transformed.
+     *
+     * @param allowStale Whether or not to use a downloaded image that has to be revalidated with its server first.
+     */
+    private Bitmap getBitmapFromDisk(CacheKey key, String source, Dimension dimension,
+                                     List<Transformation> transformations, boolean allowStale) {
+        if (!allowStale && isStale(key)) {
+            if (DEBUG)
+                log(source + " is stale in the disk cache, revalidating it.");
+            return null;
+        }
+        long start = mMetrics.now();
+        Bitmap bitmap = null;
+        try {
+            CacheHeaders originalHeaders = cacheOriginals ? getCacheHeaders(key.getOriginalKey().toFileName()) : null;
+            if (originalHeaders != null && !originalHeaders.isSameVersion(getCacheHeaders(key.toFileName()))) {
+                // The variant was made from an older version of the original that has been downloaded again since
+                mDiskCache.remove(key.toFileName());
+            }
+            File variant = mDiskCache.getFile(key.toFileName());
+            boolean fromOriginal = false;
+            if (variant != null) {
+                bitmap = Utils.decodeFile(variant.getAbsolutePath(), dimension, exactScale, mBitmapPool,
+                        mDecodeBudget, getDecodeConfig(key));
+            } else if (cacheOriginals && (dimension != null || key.getTransformation() != null ||
+                    key.getDecodeConfig() != null) && (key.getTransformation() == null || transformations != null)) {
+                // A transformed image can only be made from the original if the transformations were passed
+                File original = mDiskCache.getFile(key.getOriginalKey().toFileName());
+                if (original != null) {
+                    bitmap = Utils.decodeFile(original.getAbsolutePath(), dimension, exactScale, mBitmapPool,
+                            mDecodeBudget, getDecodeConfig(key));
+                    bitmap = transform(bitmap, transformations);
+                    fromOriginal = true;
+                }
+            }
+            if (bitmap != null) {
+                mMetrics.recordSince(Timing.DISK_READ, start);
+                if (fromOriginal && (cacheVariants || key.getTransformation() != null))
+                    putVariantOnDisk(key, bitmap, originalHeaders);
+                putInMemory(key, bitmap);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Encodes a downsampled image into the disk cache, tagged with the caching headers of the download it was made
+     * from so it's never used with a newer version of the original.
+     */
+    private void putVariantOnDisk(CacheKey key, Bitmap bitmap, CacheHeaders headers) {
+        long start = mMetrics.now();
+        try {
+            mDiskCache.put(key.toFileName(), bitmap);
+            if (headers != null)
+                mDiskCache.setMetadata(key.toFileName(), headers.toString());
+            mMetrics.recordSince(Timing.DISK_WRITE, start);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the pixel format a key's image is decoded with: its own, or the default one.
+     */
+    private DecodeConfig getDecodeConfig(CacheKey key) {
+        return key.getDecodeConfig() != null ? key.getDecodeConfig() : mDecodeConfig;
+    }
+
+    /**
+     * Returns true if an image that was just decoded for a key should be stored in the disk cache next to the original:
+     * when originals aren't cached, when variants are, and always for transformed images, which are the most
+     * expensive to make again.
+     */
+    private boolean shouldCacheVariant(CacheKey key) {
+        return !cacheOriginals || key.getTransformation() != null || (cacheVariants && key.getDimension() != null);
+    }
+
+    /**
+     * Applies transformations to an image that was just decoded, in order. Intermediate images are recycled (or go
+     * back to the Bitmap pool); they never left the decode that made them.
+     */
+    private Bitmap transform(Bitmap bitmap, List<Transformation> transformations) {
+        if (bitmap == null || transformations == null)
+            return bitmap;
+        for (Transformation transformation : transformations) {
+            Bitmap result;
+            try {
+                result = transformation.transform(bitmap);
+            } catch (Exception e) {
+                e.printStackTrace();
+                result = null;
+            }
+            if (result != bitmap) {
+                BitmapPool pool = mBitmapPool;
+                if (pool != null)
+                    pool.put(bitmap);
+                else
+                    bitmap.recycle();
+            }
+            if (result == null)
+                return null;
+            bitmap = result;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Gets the part of the cache key that identifies a chain of transformations, or null if there are none.
+     */
+    private static String getTransformationId(List<Transformation> transformations) {
+        if (transformations == null || transformations.isEmpty())
+            return null;
+        StringBuilder id = new StringBuilder();
+        for (Transformation transformation : transformations) {
+            if (id.length() > 0)
+                id.append('|');
+            id.append(transformation.getId());
+        }
+        return id.toString();
+    }
+
+    private Bitmap getBitmapFromExternal(CacheKey key, String source, Dimension dimension,
+                                         List<Transformation> transformations) {
+        if (source.startsWith("http"))
+            return getBitmapFromNetwork(key, source, dimension, transformations);
+        SourceLoader loader = getSourceLoader(source);
+        Bitmap bitmap;
+        if (loader.isLocal()) {
+            long start = mMetrics.now();
+            bitmap = decodeLocalSource(loader, source, dimension, getDecodeConfig(key));
+            if (bitmap != null)
+                mMetrics.recordSince(Timing.DECODE, start);
+            bitmap = transform(bitmap, transformations);
+        } else {
+            bitmap = decodeRemoteSource(key, loader, source, dimension, transformations);
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            // The load was cancelled, nobody is waiting on the result or its fallback
+            return null;
+        } else if (bitmap == null) {
+            if (source.equals(ImageManager.SOURCE_FALLBACK) || fallbackImageId <= 0)
+                return null;
+            // The fallback is cached under its own key, the source will be retried next time it's requested
+            return get(ImageManager.SOURCE_FALLBACK, dimension);
+        }
+        putInMemory(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Decodes a source that's stored on the device straight from where it's stored: files and file descriptors are
+     * decoded in place, and streams are only buffered as far as decoding their bounds needs. Nothing is written to the
+     * disk cache, the source is already on disk.
+     */
+    private Bitmap decodeLocalSource(SourceLoader loader, String source, Dimension dimension,
+                                     DecodeConfig decodeConfig) {
+        SourceLoader.Result result = null;
+        try {
+            result = loader.open(source);
+            if (result == null)
+                return null;
+            if (result.getPath() != null)
+                return Utils.decodeFile(result.getPath(), dimension, exactScale, mBitmapPool, mDecodeBudget,
+                        decodeConfig);
+            if (result.getFileDescriptor() != null)
+                return Utils.decodeFileDescriptor(result.getFileDescriptor(), dimension, exactScale, mBitmapPool,
+                        mDecodeBudget, decodeConfig);
+            InputStream inputStream = result.getStream();
+            if (!inputStream.markSupported())
+                inputStream = new BufferedInputStream(inputStream, Utils.STREAM_MARK_LIMIT);
+            try {
+                return Utils.decodeStream(inputStream, dimension, exactScale, mBitmapPool, mDecodeBudget,
+                        decodeConfig);
+            } catch (IOException e) {
+                // The stream couldn't be rewound after decoding the bounds, start over from a fresh one
+                result.close();
+                result = loader.open(source);
+                byte[] byteArray = result != null ? inputStreamToBytes(result.openStream()) : null;
+                if (byteArray == null)
+                    return null;
+                return Utils.decodeByteArray(byteArray, dimension, exactScale, mBitmapPool, mDecodeBudget,
+                        decodeConfig);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            IOUtils.closeQuietly(result);
+        }
+    }
+
+    /**
+     * Reads a source that isn't on the device, and stores it in the disk cache like a download.
+     */
+    private Bitmap decodeRemoteSource(CacheKey key, SourceLoader loader, String source, Dimension dimension,
+                                      List<Transformation> transformations) {
+        byte[] byteArray = null;
+        SourceLoader.Result result = null;
+        InputStream inputStream = null;
+        try {
+            result = loader.open(source);
+            if (result != null) {
+                inputStream = result.openStream();
+                byteArray = inputStreamToBytes(inputStream);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+            IOUtils.closeQuietly(result);
+        }
+        if (byteArray == null)
+            return null;
+
+        if (cacheOriginals) {
+            long start = mMetrics.now();
+            try {
+                mDiskCache.put(key.getOriginalKey().toFileName(), byteArray);
+                mMetrics.recordSince(Timing.DISK_WRITE, start);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        long start = mMetrics.now();
+        Bitmap bitmap = Utils.decodeByteArray(byteArray, dimension, exactScale, mBitmapPool, mDecodeBudget,
+                getDecodeConfig(key));
+        if (bitmap != null)
+            mMetrics.recordSince(Timing.DECODE, start);
+        bitmap = transform(bitmap, transformations);
+        if (bitmap != null && shouldCacheVariant(key))
+            putVariantOnDisk(key, bitmap, null);
+        return bitmap;
+    }
+
+    /**
+     * Gets the caching headers of a download that's already in the disk cache, so it can be revalidated instead of
+     * downloaded again. Returns null if there's no cached download, or it can't be revalidated.
+     */
+    private CacheHeaders getValidators(CacheKey key) {
+        String entry = getDownloadEntry(key);
+        if (!mDiskCache.contains(entry))
+            return null;
+        CacheHeaders headers = getCacheHeaders(entry);
+        return headers != null && headers.hasValidators() ? headers : null;
+    }
+
+    /**
+     * Downloads and decodes an image. See {@link #download(CacheKey, String)} and
+     * {@link #decodeDownload(CacheKey, String, Dimension, List, Download)}, which asynchronous loads run on separate
+     * threads.
+     */
+    private Bitmap getBitmapFromNetwork(CacheKey key, String source, Dimension dimension,
+                                        List<Transformation> transformations) {
+        return decodeDownload(key, source, dimension, transformations, download(key, source));
+    }
+
+    /**
+     * Downloads an image into the disk cache without decoding it, so a network thread never spends its time on CPU
+     * bound work. If originals aren't cached (or the server said not to store the image), it's downloaded to a
+     * temporary file that's deleted once the download is closed.
+     * <p/>
+     * If a stale copy is already in the disk cache, a conditional request is made and the copy is used as long as the
+     * server says it hasn't changed.
+     */
+    private Download download(CacheKey key, String source) {
+        return download(key, source, cacheOriginals);
+    }
+
+    /**
+     * @param storeOriginal Whether or not the original is committed to the disk cache, unless the server said not to
+     *                      store it.
+     */
+    private Download download(CacheKey key, String source, boolean storeOriginal) {
+        CacheHeaders validators = getValidators(key);
+        DiskCache.Editor editor = mDiskCache.edit(key.getOriginalKey().toFileName());
+        Download download = new Download(editor);
+        Fetcher.Response response = null;
+        long start = mMetrics.now();
+        try {
+            response = mFetcher.fetch(source, validators);
+            download.headers = response.getCacheHeaders();
+            if (response.isNotModified()) {
+                mMetrics.increment(Counter.NETWORK_NOT_MODIFIED);
+                if (DEBUG)
+                    log(source + " hasn't changed, using the copy in the disk cache.");
+                if (download.headers != null)
+                    mDiskCache.setMetadata(getDownloadEntry(key), download.headers.toString());
+                download.notModified = true;
+                return download;
+            }
+            download.store = download.headers == null || !download.headers.isNoStore();
+            IOUtils.copy(response.getBody(), editor.newOutputStream());
+            if (storeOriginal && download.store) {
+                if (download.headers != null)
+                    editor.setMetadata(download.headers.toString());
+                download.file = editor.commit();
+            } else {
+                download.file = editor.close();
+            }
+            mMetrics.increment(Counter.NETWORK_DOWNLOAD);
+            mMetrics.add(Counter.BYTES_DOWNLOADED, download.file.length());
+            mMetrics.recordSince(Timing.NETWORK, start);
+        } catch (Exception e) {
+            e.printStackTrace();
+            download.error = e;
+            if (!Thread.currentThread().isInterrupted())
+                mMetrics.increment(Counter.NETWORK_FAILURE);
+        } finally {
+            IOUtils.closeQuietly(response);
+        }
+        return download;
+    }
+
+    /**
+     * Decodes a finished download and caches the result, then closes the download. If the download failed, a stale
+     * copy from the disk cache or the fallback image is returned instead.
+     */
+    private Bitmap decodeDownload(CacheKey key, String source, Dimension dimension,
+                                  List<Transformation> transformations, Download download) {
+        try {
+            if (download.error != null) {
+                if (Thread.currentThread().isInterrupted() || download.error instanceof InterruptedIOException)
+                    return null;
+                Exception e = download.error;
+                boolean gone = e instanceof HttpStatusException && !((HttpStatusException) e).isServerError();
+                if (!gone) {
+                    // The server couldn't be reached, a stale copy is better than the fallback image
+                    Bitmap stale = getBitmapFromDisk(key, source, dimension, transformations, true);
+                    if (stale != null)
+                        return stale;
+                }
+                if (source.equals(ImageManager.SOURCE_FALLBACK) || fallbackImageId <= 0)
+                    return null;
+                return get(ImageManager.SOURCE_FALLBACK, dimension);
+            } else if (download.notModified) {
+                return getBitmapFromDisk(key, source, dimension, transformations, true);
+            }
+
+            long start = mMetrics.now();
+            Bitmap bitmap = Utils.decodeFile(download.file.getAbsolutePath(), dimension, exactScale, mBitmapPool,
+                    mDecodeBudget, getDecodeConfig(key));
+            if (bitmap == null)
+                return null;
+            mMetrics.recordSince(Timing.DECODE, start);
+            bitmap = transform(bitmap, transformations);
+            if (bitmap == null)
+                return null;
+            if (download.store && shouldCacheVariant(key))
+                putVariantOnDisk(key, bitmap, download.headers);
+            putInMemory(key, bitmap);
+            return bitmap;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            download.close();
+        }
+    }
+
+    /**
+     * Downloads the original image of a source into the disk cache without decoding it. Returns false if it couldn't
+     * be downloaded.
+     */
+    private boolean downloadToDisk(String source) {
+        CacheKey key = new CacheKey(source, null);
+        CacheHeaders validators = getValidators(key);
+        DiskCache.Editor editor = mDiskCache.edit(key.toFileName());
+        Fetcher.Response response = null;
+        long start = mMetrics.now();
+        try {
+            response = mFetcher.fetch(source, validators);
+            CacheHeaders headers = response.getCacheHeaders();
+            if (response.isNotModified()) {
+                mMetrics.increment(Counter.NETWORK_NOT_MODIFIED);
+                if (headers != null)
+                    mDiskCache.setMetadata(key.toFileName(), headers.toString());
+                return true;
+            } else if (headers != null && headers.isNoStore()) {
+                // Nothing can be prefetched, the image has to be downloaded again when it's displayed
+                return false;
+            }
+            int length = IOUtils.copy(response.getBody(), editor.newOutputStream());
+            if (headers != null)
+                editor.setMetadata(headers.toString());
+            editor.commit();
+            mMetrics.increment(Counter.NETWORK_DOWNLOAD);
+            mMetrics.add(Counter.BYTES_DOWNLOADED, length);
+            mMetrics.recordSince(Timing.NETWORK, start);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (!Thread.currentThread().isInterrupted())
+                mMetrics.increment(Counter.NETWORK_FAILURE);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(response);
+            editor.abort();
+        }
+    }
+
+    private byte[] inputStreamToBytes(InputStream stream) {
+        PoolingByteArrayOutputStream byteArrayOutputStream = new PoolingByteArrayOutputStream(ByteArrayPool.getDefault());
+        try {
+            IOUtils.copy(stream, byteArrayOutputStream);
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(byteArrayOutputStream);
+        }
+    }
+
+    private static LruCache<CacheKey, Bitmap> newTileCache(int maxBytes) {
+        return new LruCache<CacheKey, Bitmap>(maxBytes) {
+            @Override
+            public int sizeOf(CacheKey key, Bitmap value) {
+                return Utils.getByteCount(value);
+            }
+        };
+    }
+
+    private LruCache<CacheKey, Bitmap> newMemoryCache(int maxBytes) {
+        return new LruCache<CacheKey, Bitmap>(maxBytes) {
+            @Override
+            public int sizeOf(CacheKey key, Bitmap value) {
+                return Utils.getByteCount(value);
+            }
+
             @Override
-            public int sizeOf(String key, Bitmap value) {
-                return value.getRowBytes() * value.getHeight();
+            protected void entryRemoved(boolean evicted, CacheKey key, Bitmap oldValue, Bitmap newValue) {
+                if (newValue == null)
+                    mVariantIndex.remove(key);
+                if (!evicted)
+                    return;
+                mMetrics.increment(Counter.MEMORY_EVICTION);
+                BitmapPool pool = mBitmapPool;
+                if (pool != null && !isShown(oldValue)) {
+                    pool.put(oldValue);
+                } else {
+                    // A pooled Bitmap gets overwritten, so only Bitmaps that aren't pooled can be kept around
+                    mSoftCache.put(key, oldValue);
+                }
             }
         };
     }
+
+    /**
+     * A finished (or failed) download that's waiting to be decoded. Closing it deletes the temporary file it was
+     * written to, if it wasn't committed to the disk cache.
+     */
+    private static class Download implements Closeable {
+
+        public Download(DiskCache.Editor editor) {
+            this.editor = editor;
+        }
+
+        private final DiskCache.Editor editor;
+        private File file;
+        private CacheHeaders headers;
+        private boolean store;
+        private boolean notModified;
+        private Exception error;
+
+        @Override
+        public void close() {
+            editor.abort();
+        }
+    }
 }
\ No newline at end of file
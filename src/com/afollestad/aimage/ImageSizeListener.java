@@ -0,0 +1,12 @@
+package com.afollestad.aimage;
+
+/**
+ * Receives the size of an image from {@link ImageManager#getImageSize(String, ImageSizeListener)}.
+ */
+public interface ImageSizeListener {
+
+    /**
+     * @param size The width and height of the original image in pixels, or null if it couldn't be loaded.
+     */
+    public abstract void onImageSizeReceived(String source, Dimension size);
+}
@@ -0,0 +1,72 @@
+package com.afollestad.aimage;
+
+import android.graphics.Bitmap;
+
+/**
+ * Returned from {@link ImageManager#get(String, ImageListener, Dimension)}; allows the caller to cancel or
+ * reprioritize its request. Cancelling a handle guarantees its listener won't be called. When every handle attached
+ * to a load has been cancelled, the load itself is stopped: queued work is removed from the executors and downloads
+ * in progress are interrupted.
+ *
+ * @author Aidan Follestad
+ */
+public class LoadHandle {
+
+    LoadHandle(ImageManager manager, PendingLoad load, ImageListener listener) {
+        this.manager = manager;
+        this.load = load;
+        this.listener = listener;
+    }
+
+    private final ImageManager manager;
+    private final PendingLoad load;
+    private final ImageListener listener;
+    private volatile boolean cancelled;
+    private volatile boolean done;
+
+    /**
+     * Cancels the request; the listener will not receive a result. Has no effect if the result was already delivered.
+     */
+    public void cancel() {
+        if (cancelled || done)
+            return;
+        cancelled = true;
+        if (load != null)
+            manager.cancel(load, this);
+    }
+
+    /**
+     * Raises the priority of the request if its load is still queued, and moves it in front of every other queued
+     * request with that priority. For example, views call this with {@link Priority#VISIBLE} when they become visible
+     * again.
+     */
+    public void setPriority(Priority priority) {
+        if (load != null && !cancelled && !done)
+            load.prioritize(priority);
+    }
+
+    /**
+     * Returns true if the request was cancelled before its result was delivered.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns true if the result has been delivered to the listener.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Called on the main thread to hand the result to the listener, unless the handle was cancelled first.
+     */
+    void deliver(String source, Bitmap bitmap) {
+        if (cancelled || done)
+            return;
+        done = true;
+        if (listener != null)
+            listener.onImageReceived(source, bitmap);
+    }
+}
@@ -0,0 +1,103 @@
+package com.afollestad.aimage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The keys of the images that were in the memory cache when the app went to the background, with the number of bytes
+ * of each image, from most to least recently used. It's stored in the disk cache, so the next process can load the
+ * same images from the disk into memory before the first screen asks for them.
+ *
+ * @author Aidan Follestad
+ */
+final class MemoryManifest {
+
+    private MemoryManifest() {
+    }
+
+    /**
+     * The disk cache key the manifest is stored under; keys of images are hex hashes, so it can't collide with them.
+     */
+    public static final String DISK_CACHE_KEY = "memory-manifest";
+    private static final int VERSION = 2;
+
+    public static final class Entry {
+
+        public Entry(CacheKey key, int byteCount) {
+            this.key = key;
+            this.byteCount = byteCount;
+        }
+
+        public final CacheKey key;
+        public final int byteCount;
+    }
+
+    public static void write(OutputStream output, List<Entry> entries) throws IOException {
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(VERSION);
+        data.writeInt(entries.size());
+        for (Entry entry : entries) {
+            CacheKey key = entry.key;
+            writeString(data, key.getSource());
+            Dimension dimension = key.getDimension();
+            data.writeInt(dimension != null ? dimension.getWidth() : -1);
+            data.writeInt(dimension != null ? dimension.getHeight() : -1);
+            writeString(data, key.getTransformation() != null ? key.getTransformation() : "");
+            data.writeByte(key.getDecodeConfig() != null ? key.getDecodeConfig().ordinal() : -1);
+            data.writeInt(entry.byteCount);
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads the entries of a manifest, most recently used first.
+     *
+     * @throws IOException If the manifest is cut off, or was written by a different version.
+     */
+    public static List<Entry> read(InputStream input) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        if (data.readInt() != VERSION)
+            throw new IOException("Unexpected memory manifest version");
+        int count = data.readInt();
+        List<Entry> entries = new ArrayList<Entry>(Math.max(0, Math.min(count, 256)));
+        DecodeConfig[] configs = DecodeConfig.values();
+        for (int i = 0; i < count; i++) {
+            String source = readString(data);
+            int width = data.readInt();
+            int height = data.readInt();
+            String transformation = readString(data);
+            int config = data.readByte();
+            int byteCount = data.readInt();
+            if (config >= configs.length)
+                throw new IOException("Unknown decode config in memory manifest");
+            CacheKey key = new CacheKey(source, width >= 0 ? new Dimension(width, height) : null,
+                    transformation.length() > 0 ? transformation : null, config >= 0 ? configs[config] : null);
+            entries.add(new Entry(key, byteCount));
+        }
+        return entries;
+    }
+
+    /**
+     * Writes a string as its UTF-8 bytes after their length. writeUTF() can't be used: it fails for strings of more
+     * than 65535 bytes, and a data URI or a long query string can be a source that big.
+     */
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length < 0)
+            throw new IOException("Negative string length in memory manifest");
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,163 @@
+package com.afollestad.aimage;
+
+import com.afollestad.aimage.cache.IOUtils;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An image load that's currently in flight, along with the handle of every request that's waiting on its result.
+ * Identical requests (requests with the same cache key) attach to the same PendingLoad instead of starting a load of
+ * their own.
+ *
+ * @author Aidan Follestad
+ */
+public class PendingLoad {
+
+    public PendingLoad(String source, CacheKey key, Dimension dimension, Priority priority, boolean decode) {
+        this(source, key, dimension, null, priority, decode);
+    }
+
+    public PendingLoad(String source, CacheKey key, Dimension dimension, List<Transformation> transformations,
+                       Priority priority, boolean decode) {
+        this.source = source;
+        this.key = key;
+        this.dimension = dimension;
+        this.transformations = transformations;
+        this.priority = priority;
+        this.decode = decode;
+    }
+
+    private final String source;
+    private final CacheKey key;
+    private final Dimension dimension;
+    private final List<Transformation> transformations;
+    private final List<LoadHandle> handles = new ArrayList<LoadHandle>(1);
+    private PriorityExecutor.Task task;
+    private Closeable resource;
+    private volatile Priority priority;
+    private volatile boolean cancelled;
+    private volatile boolean decode;
+    private volatile boolean decodeAttempted;
+
+    public String getSource() {
+        return source;
+    }
+
+    public CacheKey getKey() {
+        return key;
+    }
+
+    public Dimension getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Gets the transformations the image is loaded with, or null if there are none.
+     */
+    public List<Transformation> getTransformations() {
+        return transformations;
+    }
+
+    /**
+     * Gets the priority that the load's work is queued with, the highest priority of every request attached to it.
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Returns true if a request attached to the load needs the decoded image, rather than only having the image
+     * cached on disk (as prefetches do).
+     */
+    public boolean shouldDecode() {
+        return decode;
+    }
+
+    /**
+     * Called when a request that needs the decoded image attaches to the load.
+     */
+    public void requireDecode() {
+        decode = true;
+    }
+
+    /**
+     * Returns true if the load has tried to decode the image, so a missing result means it couldn't be loaded.
+     */
+    public boolean isDecodeAttempted() {
+        return decodeAttempted;
+    }
+
+    public void setDecodeAttempted() {
+        decodeAttempted = true;
+    }
+
+    /**
+     * Called when a request attaches to the load or wants it sooner. The load moves up to the priority if it's higher
+     * than its current one, and to the front of the queue for its priority since it's now the most recently requested.
+     */
+    public synchronized void prioritize(Priority priority) {
+        if (priority.compareTo(this.priority) > 0)
+            this.priority = priority;
+        if (task != null && !cancelled)
+            task.setPriority(this.priority);
+    }
+
+    /**
+     * Attaches another request to the load; it will receive the same result as every other attached request.
+     */
+    public synchronized void addHandle(LoadHandle handle) {
+        handles.add(handle);
+    }
+
+    /**
+     * Detaches a request from the load, returns true if no requests are left waiting on it.
+     */
+    public synchronized boolean removeHandle(LoadHandle handle) {
+        handles.remove(handle);
+        return handles.isEmpty();
+    }
+
+    /**
+     * Gets a copy of the handles that are currently attached to the load.
+     */
+    public synchronized List<LoadHandle> getHandles() {
+        return new ArrayList<LoadHandle>(handles);
+    }
+
+    /**
+     * Sets the task that's currently executing the load (the disk lookup, then the download). If the load was
+     * already cancelled, the task is cancelled immediately.
+     */
+    public synchronized void setTask(PriorityExecutor.Task task) {
+        this.task = task;
+        if (cancelled)
+            task.cancel(true);
+    }
+
+    /**
+     * Sets something the load holds on to between its tasks (e.g. a downloaded file that's waiting to be decoded),
+     * which is closed if the load is cancelled.
+     */
+    public synchronized void setResource(Closeable resource) {
+        this.resource = resource;
+        if (cancelled)
+            IOUtils.closeQuietly(resource);
+    }
+
+    /**
+     * Cancels the load; the task that's currently executing it is removed from its queue, or interrupted if it's
+     * already running.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if (task != null)
+            task.cancel(true);
+        IOUtils.closeQuietly(resource);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
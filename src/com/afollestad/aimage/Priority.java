@@ -0,0 +1,25 @@
+package com.afollestad.aimage;
+
+/**
+ * The priority of an image request. Queued work for requests with a higher priority is always executed before work
+ * for requests with a lower priority; among requests with the same priority, the most recent one goes first.
+ *
+ * @author Aidan Follestad
+ */
+public enum Priority {
+
+    /**
+     * Work that nothing on screen is waiting on.
+     */
+    BACKGROUND,
+
+    /**
+     * Images that are expected to be needed soon, e.g. items a few screens ahead in a list.
+     */
+    PREFETCH,
+
+    /**
+     * Images for views that are currently visible. The default for requests.
+     */
+    VISIBLE
+}
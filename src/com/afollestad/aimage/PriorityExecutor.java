@@ -0,0 +1,132 @@
+package com.afollestad.aimage;
+
+import com.afollestad.aimage.metrics.ImageMetrics;
+import com.afollestad.aimage.metrics.Timing;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size thread pool that executes queued work by {@link Priority}, and in last-in-first-out order among work
+ * of the same priority, so the most recently requested images are loaded first. Work that's still queued can be
+ * moved to a different priority, e.g. when the view waiting on it becomes visible again.
+ *
+ * @author Aidan Follestad
+ */
+public class PriorityExecutor extends ThreadPoolExecutor {
+
+    public PriorityExecutor(int threadCount, ThreadFactory threadFactory) {
+        super(threadCount, threadCount, 60L, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), threadFactory);
+        allowCoreThreadTimeOut(true);
+    }
+
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile ImageMetrics metrics;
+    private volatile Timing queueWaitTiming;
+
+    /**
+     * Sets the metrics that the time tasks wait in the queue is recorded into.
+     */
+    public void setMetrics(ImageMetrics metrics, Timing queueWaitTiming) {
+        this.queueWaitTiming = queueWaitTiming;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queues work with a priority, returns a task that can be used to cancel or reprioritize it.
+     */
+    public Task submit(Runnable runnable, Priority priority) {
+        Task task = new Task(this, runnable, priority, sequence.incrementAndGet());
+        ImageMetrics metrics = this.metrics;
+        task.queuedAt = metrics != null ? metrics.now() : 0;
+        execute(task);
+        return task;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        ImageMetrics metrics = this.metrics;
+        if (metrics != null && r instanceof Task)
+            metrics.recordSince(queueWaitTiming, ((Task) r).queuedAt);
+    }
+
+    /**
+     * Changes the number of threads that work is executed on.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount > getMaximumPoolSize()) {
+            setMaximumPoolSize(threadCount);
+            setCorePoolSize(threadCount);
+        } else {
+            setCorePoolSize(threadCount);
+            setMaximumPoolSize(threadCount);
+        }
+    }
+
+    /**
+     * Moves a queued task to a new priority, and to the front of the tasks with that priority. Returns false if the
+     * task isn't queued anymore (it's already executing, done, or cancelled).
+     */
+    boolean reprioritize(Task task, Priority priority) {
+        if (!getQueue().remove(task))
+            return false;
+        task.priority = priority;
+        task.sequence = sequence.incrementAndGet();
+        // Queued through execute() again rather than the queue directly, so there's always a thread to run it
+        execute(task);
+        return true;
+    }
+
+    /**
+     * Work that's queued in a PriorityExecutor.
+     */
+    public static class Task extends FutureTask<Void> implements Comparable<Task> {
+
+        private Task(PriorityExecutor executor, Runnable runnable, Priority priority, long sequence) {
+            super(runnable, null);
+            this.executor = executor;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        private final PriorityExecutor executor;
+        // Only changed while the task is out of the queue, so the queue's ordering is never broken
+        private volatile Priority priority;
+        private volatile long sequence;
+        // When the task was first queued, reprioritizing it doesn't reset the wait
+        private long queuedAt;
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * Moves the task to a new priority if it's still queued, see {@link PriorityExecutor#reprioritize(Task, Priority)}.
+         */
+        public boolean setPriority(Priority priority) {
+            return executor.reprioritize(this, priority);
+        }
+
+        /**
+         * Cancels the task, removing it from the queue of its executor if it's still queued.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            executor.remove(this);
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(Task another) {
+            if (priority != another.priority)
+                return another.priority.ordinal() - priority.ordinal();
+            return sequence > another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+    }
+}
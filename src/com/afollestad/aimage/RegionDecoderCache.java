@@ -0,0 +1,122 @@
+package com.afollestad.aimage;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the {@link BitmapRegionDecoder}s of the last few sources that regions were decoded from open, since opening a
+ * decoder parses the image all over again. A decoder is only recycled while it isn't decoding a region, and decoding
+ * from a decoder that was recycled in the meantime returns null instead of throwing.
+ *
+ * @author Aidan Follestad
+ */
+class RegionDecoderCache {
+
+    public RegionDecoderCache(final int maxDecoders) {
+        this.decoders = new LinkedHashMap<String, BitmapRegionDecoder>(0, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BitmapRegionDecoder> eldest) {
+                if (size() <= maxDecoders)
+                    return false;
+                opaqueSources.remove(eldest.getKey());
+                recycle(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    private final LinkedHashMap<String, BitmapRegionDecoder> decoders;
+    /**
+     * The sources whose images can't have transparency, going by their headers.
+     */
+    private final Set<String> opaqueSources = new HashSet<String>();
+
+    public synchronized BitmapRegionDecoder get(String source) {
+        return decoders.get(source);
+    }
+
+    public synchronized boolean contains(String source) {
+        return decoders.containsKey(source);
+    }
+
+    /**
+     * Returns true if the image of a source that has a decoder in the cache can't have transparency.
+     */
+    public synchronized boolean isOpaque(String source) {
+        return opaqueSources.contains(source);
+    }
+
+    /**
+     * Adds the decoder of a source, unless another thread added one first; the decoder that ends up in the cache is
+     * returned, and the other one is recycled.
+     *
+     * @param opaque Whether or not the image can't have transparency, so its regions can be decoded as RGB_565.
+     */
+    public BitmapRegionDecoder put(String source, BitmapRegionDecoder decoder, boolean opaque) {
+        BitmapRegionDecoder existing;
+        synchronized (this) {
+            existing = decoders.get(source);
+            if (existing == null) {
+                decoders.put(source, decoder);
+                if (opaque)
+                    opaqueSources.add(source);
+                return decoder;
+            }
+        }
+        recycle(decoder);
+        return existing;
+    }
+
+    public void clear() {
+        List<BitmapRegionDecoder> removed;
+        synchronized (this) {
+            removed = new ArrayList<BitmapRegionDecoder>(decoders.values());
+            decoders.clear();
+            opaqueSources.clear();
+        }
+        for (BitmapRegionDecoder decoder : removed)
+            recycle(decoder);
+    }
+
+    /**
+     * Gets the size of a decoder's image, or null if it was recycled.
+     */
+    public static Dimension getSize(BitmapRegionDecoder decoder) {
+        synchronized (decoder) {
+            if (decoder.isRecycled())
+                return null;
+            return new Dimension(decoder.getWidth(), decoder.getHeight());
+        }
+    }
+
+    /**
+     * Decodes a region of a decoder's image, or returns null if the decoder was recycled. The region is clipped to
+     * the bounds of the image.
+     */
+    public static Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect region, BitmapFactory.Options options) {
+        synchronized (decoder) {
+            if (decoder.isRecycled())
+                return null;
+            Rect clipped = new Rect(region);
+            if (!clipped.intersect(0, 0, decoder.getWidth(), decoder.getHeight()))
+                return null;
+            return decoder.decodeRegion(clipped, options);
+        }
+    }
+
+    private static void recycle(BitmapRegionDecoder decoder) {
+        // Waits for a decode that's in progress
+        synchronized (decoder) {
+            decoder.recycle();
+        }
+    }
+}
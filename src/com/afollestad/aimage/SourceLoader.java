@@ -0,0 +1,101 @@
+package com.afollestad.aimage;
+
+import android.os.ParcelFileDescriptor;
+
+import com.afollestad.aimage.cache.IOUtils;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Opens the image sources of one URI scheme, see {@link ImageManager#setSourceLoader(String, SourceLoader)}.
+ * Loaders for the fallback image, content://, file://, asset:// and android.resource:// sources are registered by
+ * default, while http:// and https:// sources are always downloaded through the ImageManager's
+ * {@link com.afollestad.aimage.net.Fetcher}.
+ * <p/>
+ * Loaders are called from several threads at once, so they must be thread safe.
+ *
+ * @author Aidan Follestad
+ */
+public interface SourceLoader {
+
+    /**
+     * Returns true if the sources of this loader are stored on the device. Local sources are decoded straight from
+     * where they're stored, and never copied into the disk cache.
+     */
+    public abstract boolean isLocal();
+
+    /**
+     * Opens a source, or returns null if it doesn't exist. Prefer returning a file path or file descriptor when the
+     * source is a file, since those are decoded without being copied or buffered.
+     */
+    public abstract Result open(String source) throws IOException;
+
+    /**
+     * An opened source: either a stream, the path of a file, or a seekable file descriptor.
+     */
+    public static class Result implements Closeable {
+
+        private Result(InputStream stream, String path, ParcelFileDescriptor descriptor) {
+            this.stream = stream;
+            this.path = path;
+            this.descriptor = descriptor;
+        }
+
+        public static Result fromStream(InputStream stream) {
+            return new Result(stream, null, null);
+        }
+
+        public static Result fromFile(String path) {
+            return new Result(null, path, null);
+        }
+
+        /**
+         * @param descriptor A descriptor of a regular file (not a pipe or socket), since it's read twice.
+         */
+        public static Result fromFileDescriptor(ParcelFileDescriptor descriptor) {
+            return new Result(null, null, descriptor);
+        }
+
+        private final InputStream stream;
+        private final String path;
+        private final ParcelFileDescriptor descriptor;
+
+        public InputStream getStream() {
+            return stream;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public FileDescriptor getFileDescriptor() {
+            return descriptor != null ? descriptor.getFileDescriptor() : null;
+        }
+
+        /**
+         * Gets a stream of the source, no matter how it was opened. The caller must close the stream.
+         */
+        public InputStream openStream() throws IOException {
+            if (stream != null)
+                return stream;
+            else if (path != null)
+                return new FileInputStream(path);
+            return new FileInputStream(descriptor.getFileDescriptor()) {
+                @Override
+                public void close() {
+                    // The descriptor is owned by the result, and closed with it
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(stream);
+            IOUtils.closeQuietly(descriptor);
+        }
+    }
+}
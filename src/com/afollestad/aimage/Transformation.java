@@ -0,0 +1,25 @@
+package com.afollestad.aimage;
+
+import android.graphics.Bitmap;
+
+/**
+ * Changes a decoded image before it's cached, e.g. cropping it or rounding its corners; see the
+ * {@link com.afollestad.aimage.transformations} package. Transformations run on the decode threads, and the
+ * transformed image is what's stored in the memory and disk caches, so it's never transformed again while it's cached.
+ *
+ * @author Aidan Follestad
+ */
+public interface Transformation {
+
+    /**
+     * Identifies the transformation and its parameters. It's part of the cache key, so transformations that can give
+     * different results must have different IDs.
+     */
+    public abstract String getId();
+
+    /**
+     * Transforms an image, either in place or into a new Bitmap. The image that's passed in must not be recycled, the
+     * ImageManager recycles it if a new Bitmap is returned.
+     */
+    public abstract Bitmap transform(Bitmap bitmap);
+}
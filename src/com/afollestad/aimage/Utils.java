@@ -1,33 +1,60 @@
 package com.afollestad.aimage;
 
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.Build;
+import com.afollestad.aimage.cache.BitmapPool;
+import com.afollestad.aimage.cache.IOUtils;
 
 public class Utils {
 
+    /**
+     * How far into a stream the bounds of an image can be for {@link #decodeStream(InputStream, Dimension, boolean)}
+     * to read them and rewind. Streams given to it should be buffered with at least this buffer size.
+     */
+    public static final int STREAM_MARK_LIMIT = 64 * 1024;
+
+    /**
+     * Calculates the largest power-of-two sample size that keeps both dimensions of the decoded image larger than
+     * or equal to the requested dimension. The options must already hold the bounds of the image (from a decode
+     * with inJustDecodeBounds set).
+     */
     public static int calculateInSampleSize(BitmapFactory.Options options, Dimension dimension) {
         // Raw height and width of image
         final int height = options.outHeight;
         final int width = options.outWidth;
+        final int reqHeight = dimension.getHeight();
+        final int reqWidth = dimension.getWidth();
         int inSampleSize = 1;
 
-        if (height > dimension.getHeight() || width > dimension.getWidth()) {
-
-            // Calculate ratios of height and width to requested height and width
-            final int heightRatio = Math.round((float) height / (float) dimension.getHeight());
-            final int widthRatio = Math.round((float) width / (float) dimension.getWidth());
+        if (height <= 0 || width <= 0 || (reqHeight <= 0 && reqWidth <= 0)) {
+            return inSampleSize;
+        }
 
-            // Choose the smallest ratio as inSampleSize value, this will guarantee
-            // a final image with both dimensions larger than or equal to the
-            // requested height and width.
-            inSampleSize = heightRatio < widthRatio ? heightRatio : widthRatio;
+        // A zero side (e.g. a wrap_content view) doesn't constrain the sample size on that axis
+        int halfHeight = height / 2;
+        int halfWidth = width / 2;
+        while ((reqHeight <= 0 || halfHeight / inSampleSize >= reqHeight) &&
+                (reqWidth <= 0 || halfWidth / inSampleSize >= reqWidth)) {
+            inSampleSize *= 2;
         }
 
         return inSampleSize;
@@ -35,49 +62,455 @@ public class Utils {
 
     public static BitmapFactory.Options getBitmapFactoryOptions(Dimension dimension) {
         BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inPurgeable = true;
-        options.inInputShareable = true;
         options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-        if(dimension != null)
-            options.inSampleSize = Utils.calculateInSampleSize(options, dimension);
+        return options;
+    }
+
+    /**
+     * Gets the number of bytes a Bitmap's pixels take up in memory.
+     */
+    public static int getByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1)
+            return bitmap.getByteCount();
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Reads only the width and height of the encoded image, without allocating any pixels.
+     */
+    public static BitmapFactory.Options decodeBounds(byte[] byteArray) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length, options);
+        return options;
+    }
+
+    /**
+     * Reads only the width and height of the encoded image in a file, without allocating any pixels.
+     */
+    public static BitmapFactory.Options decodeBounds(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
         return options;
     }
 
     public static Bitmap decodeByteArray(byte[] byteArray, Dimension dimension) {
+        return decodeByteArray(byteArray, dimension, false);
+    }
+
+    public static Bitmap decodeByteArray(byte[] byteArray, Dimension dimension, boolean exactScale) {
+        return decodeByteArray(byteArray, dimension, exactScale, null);
+    }
+
+    /**
+     * Decodes an image in up to three passes: the bounds are read first, then the image is decoded using the
+     * largest power-of-two sample size that still covers the dimension, and finally (if exactScale is true) the
+     * result is scaled down so that it exactly covers the dimension.
+     *
+     * @param pool If not null, Bitmaps are taken from this pool to decode into instead of being allocated.
+     */
+    public static Bitmap decodeByteArray(byte[] byteArray, Dimension dimension, boolean exactScale, BitmapPool pool) {
+        return decodeByteArray(byteArray, dimension, exactScale, pool, null, null);
+    }
+
+    /**
+     * The same as {@link #decodeByteArray(byte[], Dimension, boolean, BitmapPool)}, but waits until the decoded
+     * Bitmap fits in a {@link DecodeBudget} before decoding it.
+     *
+     * @param config The pixel format to decode with, null decodes with {@link DecodeConfig#ARGB_8888}.
+     */
+    public static Bitmap decodeByteArray(final byte[] byteArray, Dimension dimension, boolean exactScale, BitmapPool pool,
+                            DecodeBudget budget, DecodeConfig config) {
         try {
-            BitmapFactory.Options bitmapFactoryOptions = Utils.getBitmapFactoryOptions(dimension);
-            return BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length, bitmapFactoryOptions);
+            return decode(new EncodedImage() {
+                @Override
+                public int readHeader(byte[] header) {
+                    int length = Math.min(header.length, byteArray.length);
+                    System.arraycopy(byteArray, 0, header, 0, length);
+                    return length;
+                }
+
+                @Override
+                public Bitmap decode(BitmapFactory.Options options) {
+                    return BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length, options);
+                }
+            }, dimension, exactScale, pool, budget, config);
         } catch (Throwable t) {
             t.printStackTrace();
         }
         return null;
     }
 
-    public static boolean isOnline(Context context) {
-        if (context == null) {
-            return false;
+    public static Bitmap decodeFile(String path, Dimension dimension, boolean exactScale) {
+        return decodeFile(path, dimension, exactScale, null);
+    }
+
+    /**
+     * The same as {@link #decodeByteArray(byte[], Dimension, boolean, BitmapPool)}, but decodes an image file
+     * directly so its contents never have to be read into memory as a whole.
+     */
+    public static Bitmap decodeFile(String path, Dimension dimension, boolean exactScale, BitmapPool pool) {
+        return decodeFile(path, dimension, exactScale, pool, null, null);
+    }
+
+    public static Bitmap decodeFile(final String path, Dimension dimension, boolean exactScale, BitmapPool pool,
+                            DecodeBudget budget, DecodeConfig config) {
+        try {
+            return decode(new EncodedImage() {
+                @Override
+                public int readHeader(byte[] header) throws IOException {
+                    return Utils.readHeader(path, header);
+                }
+
+                @Override
+                public Bitmap decode(BitmapFactory.Options options) {
+                    return BitmapFactory.decodeFile(path, options);
+                }
+            }, dimension, exactScale, pool, budget, config);
+        } catch (Throwable t) {
+            t.printStackTrace();
         }
-        boolean state = false;
-        ConnectivityManager cm = (ConnectivityManager) context
-                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        return null;
+    }
+
+    /**
+     * The same as {@link #decodeFile(String, Dimension, boolean, BitmapPool)}, for a file that's only available as a
+     * descriptor (e.g. from a ContentProvider). Decoding doesn't move the descriptor's position, so it can be read
+     * twice; it must be a regular file though, not a pipe or socket.
+     */
+    public static Bitmap decodeFileDescriptor(FileDescriptor fd, Dimension dimension, boolean exactScale, BitmapPool pool) {
+        return decodeFileDescriptor(fd, dimension, exactScale, pool, null, null);
+    }
 
-        NetworkInfo wifiNetwork = cm.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
-        if (wifiNetwork != null) {
-            state = wifiNetwork.isConnectedOrConnecting();
+    public static Bitmap decodeFileDescriptor(final FileDescriptor fd, Dimension dimension, boolean exactScale, BitmapPool pool,
+                            DecodeBudget budget, DecodeConfig config) {
+        try {
+            return decode(new EncodedImage() {
+                @Override
+                public int readHeader(byte[] header) throws IOException {
+                    return Utils.readHeader(fd, header);
+                }
+
+                @Override
+                public Bitmap decode(BitmapFactory.Options options) {
+                    return BitmapFactory.decodeFileDescriptor(fd, null, options);
+                }
+            }, dimension, exactScale, pool, budget, config);
+        } catch (Throwable t) {
+            t.printStackTrace();
         }
+        return null;
+    }
+
+    public static Bitmap decodeStream(InputStream input, Dimension dimension, boolean exactScale) throws IOException {
+        return decodeStream(input, dimension, exactScale, null);
+    }
 
-        NetworkInfo mobileNetwork = cm.getNetworkInfo(ConnectivityManager.TYPE_MOBILE);
-        if (mobileNetwork != null) {
-            state = mobileNetwork.isConnectedOrConnecting();
+    /**
+     * The same as {@link #decodeByteArray(byte[], Dimension, boolean, BitmapPool)}, but decodes from a stream as
+     * it's being read so the encoded image never has to be held in memory as a whole. The stream must support
+     * mark/reset; the bounds are read from the start of the stream, which is then reset for the actual decode.
+     *
+     * @throws IOException If the bounds were too far into the stream (more than {@link #STREAM_MARK_LIMIT} bytes) for
+     *                     it to be reset, or the stream couldn't be read.
+     */
+    public static Bitmap decodeStream(InputStream input, Dimension dimension, boolean exactScale, BitmapPool pool) throws IOException {
+        return decodeStream(input, dimension, exactScale, pool, null, null);
+    }
+
+    public static Bitmap decodeStream(final InputStream input, Dimension dimension, boolean exactScale, BitmapPool pool,
+                            DecodeBudget budget, DecodeConfig config) throws IOException {
+        try {
+            return decode(new EncodedImage() {
+                @Override
+                public int readHeader(byte[] header) throws IOException {
+                    return Utils.readHeader(input, header);
+                }
+
+                @Override
+                public void mark() {
+                    input.mark(STREAM_MARK_LIMIT);
+                }
+
+                @Override
+                public void reset() throws IOException {
+                    input.reset();
+                }
+
+                @Override
+                public boolean canDecodeAgain() {
+                    return false;
+                }
+
+                @Override
+                public Bitmap decode(BitmapFactory.Options options) {
+                    return BitmapFactory.decodeStream(input, null, options);
+                }
+            }, dimension, exactScale, pool, budget, config);
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable t) {
+            t.printStackTrace();
         }
+        return null;
+    }
 
-        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
-        if (activeNetwork != null) {
-            state = activeNetwork.isConnectedOrConnecting();
+    /**
+     * An encoded image that can be decoded by
+     * {@link #decode(EncodedImage, Dimension, boolean, BitmapPool, DecodeBudget, DecodeConfig)}.
+     */
+    private static abstract class EncodedImage {
+
+        /**
+         * Reads the first bytes of the image into a buffer without consuming them, returns the number of bytes read.
+         */
+        public abstract int readHeader(byte[] header) throws IOException;
+
+        /**
+         * Called before the bounds are decoded.
+         */
+        public void mark() {
         }
-        return state;
+
+        /**
+         * Called after the bounds are decoded, to go back to the start of the image.
+         */
+        public void reset() throws IOException {
+        }
+
+        /**
+         * Returns false if the image can only be decoded once after its bounds, e.g. because it's a stream.
+         */
+        public boolean canDecodeAgain() {
+            return true;
+        }
+
+        public abstract Bitmap decode(BitmapFactory.Options options);
+    }
+
+    private static Bitmap decode(EncodedImage image, Dimension dimension, boolean exactScale, BitmapPool pool,
+                                 DecodeBudget budget, DecodeConfig config) throws IOException {
+        BitmapFactory.Options bitmapFactoryOptions = Utils.getBitmapFactoryOptions(dimension);
+        if (config == DecodeConfig.PREFER_RGB_565) {
+            byte[] header = new byte[ImageHeader.LENGTH];
+            if (!ImageHeader.mayHaveAlpha(header, image.readHeader(header))) {
+                bitmapFactoryOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+                bitmapFactoryOptions.inDither = true;
+            }
+        }
+        boolean sized = dimension != null && !dimension.isZero();
+        long reserved = 0;
+        if (sized || pool != null || budget != null) {
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            image.mark();
+            image.decode(bounds);
+            image.reset();
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                // Not an image the decoder understands
+                return null;
+            }
+            if (sized)
+                bitmapFactoryOptions.inSampleSize = Utils.calculateInSampleSize(bounds, dimension);
+            if (pool != null) {
+                // Decoded Bitmaps must be mutable to be reused later
+                bitmapFactoryOptions.inMutable = true;
+                if (bitmapFactoryOptions.inSampleSize <= 1) {
+                    // Before KitKat, a Bitmap can only be reused for an image of exactly the same size
+                    bitmapFactoryOptions.inBitmap = pool.get(bounds.outWidth, bounds.outHeight,
+                            bitmapFactoryOptions.inPreferredConfig);
+                }
+            }
+            if (budget != null) {
+                int sampleSize = Math.max(1, bitmapFactoryOptions.inSampleSize);
+                int sampledWidth = (bounds.outWidth + sampleSize - 1) / sampleSize;
+                int sampledHeight = (bounds.outHeight + sampleSize - 1) / sampleSize;
+                reserved = DecodeBudget.getByteCount(sampledWidth, sampledHeight,
+                        bitmapFactoryOptions.inPreferredConfig);
+                if (exactScale) {
+                    // The scaled copy is allocated while the sampled Bitmap is still alive
+                    int[] cover = getCoverSize(sampledWidth, sampledHeight, dimension);
+                    if (cover != null)
+                        reserved += DecodeBudget.getByteCount(cover[0], cover[1],
+                                bitmapFactoryOptions.inPreferredConfig);
+                }
+                try {
+                    budget.acquire(reserved);
+                } catch (InterruptedException e) {
+                    // The load was cancelled while waiting for its turn
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the decode budget.");
+                }
+            }
+        }
+        // Held until the exact scale is done too, since that's when the most memory is used
+        try {
+            return decode(image, bitmapFactoryOptions, dimension, exactScale, pool);
+        } finally {
+            if (reserved > 0)
+                budget.release(reserved);
+        }
+    }
+
+    private static Bitmap decode(EncodedImage image, BitmapFactory.Options bitmapFactoryOptions, Dimension dimension,
+                                 boolean exactScale, BitmapPool pool) throws IOException {
+        Bitmap bitmap;
+        try {
+            bitmap = image.decode(bitmapFactoryOptions);
+        } catch (IllegalArgumentException e) {
+            // The pooled Bitmap couldn't be reused for this image
+            if (bitmapFactoryOptions.inBitmap == null)
+                throw e;
+            bitmapFactoryOptions.inBitmap.recycle();
+            bitmapFactoryOptions.inBitmap = null;
+            if (!image.canDecodeAgain())
+                throw new IOException("The image could not be decoded into a pooled Bitmap.");
+            bitmap = image.decode(bitmapFactoryOptions);
+        }
+        if (exactScale)
+            bitmap = scaleToCover(bitmap, dimension, pool);
+        return bitmap;
+    }
+
+    /**
+     * Gets the size (width and height) an image is scaled down to by {@link #scaleToCover(Bitmap, Dimension)}, or null
+     * if it isn't scaled.
+     */
+    static int[] getCoverSize(int width, int height, Dimension dimension) {
+        if (dimension == null || dimension.isZero() || width <= 0 || height <= 0) {
+            return null;
+        }
+        float widthScale = dimension.getWidth() > 0 ? (float) dimension.getWidth() / (float) width : 0f;
+        float heightScale = dimension.getHeight() > 0 ? (float) dimension.getHeight() / (float) height : 0f;
+        float scale = Math.max(widthScale, heightScale);
+        if (scale <= 0f || scale >= 1f) {
+            return null;
+        }
+        return new int[]{Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale))};
+    }
+
+    public static Bitmap scaleToCover(Bitmap bitmap, Dimension dimension) {
+        return scaleToCover(bitmap, dimension, null);
+    }
+
+    /**
+     * Scales a bitmap down (never up) so that it covers the dimension while keeping its aspect ratio; one side will
+     * match the dimension exactly and the other will be equal or larger. If a scaled copy is made, the source bitmap
+     * is put in the pool (or recycled if there is no pool), and the copy is drawn into a pooled Bitmap if possible.
+     */
+    public static Bitmap scaleToCover(Bitmap bitmap, Dimension dimension, BitmapPool pool) {
+        if (bitmap == null) {
+            return null;
+        }
+        int[] cover = getCoverSize(bitmap.getWidth(), bitmap.getHeight(), dimension);
+        if (cover == null) {
+            return bitmap;
+        }
+        int width = cover[0];
+        int height = cover[1];
+        Bitmap scaled;
+        if (pool == null) {
+            scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+            if (scaled != bitmap)
+                bitmap.recycle();
+            return scaled;
+        }
+
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        scaled = pool.get(width, height, config);
+        if (scaled == null)
+            scaled = Bitmap.createBitmap(width, height, config);
+        else
+            scaled.eraseColor(Color.TRANSPARENT);
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) width / bitmap.getWidth(), (float) height / bitmap.getHeight());
+        new Canvas(scaled).drawBitmap(bitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        // The intermediate Bitmap never left this method, so it's safe to reuse
+        pool.put(bitmap);
+        return scaled;
+    }
+
+    private static int readHeader(String path, byte[] header) throws IOException {
+        FileInputStream input = new FileInputStream(path);
+        try {
+            return readFully(input, header);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private static int readHeader(FileDescriptor fd, byte[] header) throws IOException {
+        // Not closed, that would close the descriptor; its position is put back for the decoder
+        FileChannel channel = new FileInputStream(fd).getChannel();
+        long position = channel.position();
+        try {
+            return readFully(Channels.newInputStream(channel), header);
+        } finally {
+            channel.position(position);
+        }
+    }
+
+    /**
+     * Reads the header of a stream that supports marks, and puts its position back.
+     */
+    private static int readHeader(InputStream input, byte[] header) throws IOException {
+        input.mark(header.length);
+        try {
+            return readFully(input, header);
+        } finally {
+            input.reset();
+        }
+    }
+
+    /**
+     * Returns true if the header of an image file says it can't have transparency, so it can be decoded as RGB_565.
+     */
+    static boolean isOpaque(String path) throws IOException {
+        byte[] header = new byte[ImageHeader.LENGTH];
+        return !ImageHeader.mayHaveAlpha(header, readHeader(path, header));
+    }
+
+    static boolean isOpaque(FileDescriptor fd) throws IOException {
+        byte[] header = new byte[ImageHeader.LENGTH];
+        return !ImageHeader.mayHaveAlpha(header, readHeader(fd, header));
+    }
+
+    /**
+     * Returns true if the header of an image stream says it can't have transparency; the stream must support marks.
+     */
+    static boolean isOpaque(InputStream input) throws IOException {
+        byte[] header = new byte[ImageHeader.LENGTH];
+        return !ImageHeader.mayHaveAlpha(header, readHeader(input, header));
+    }
+
+    /**
+     * Reads until a buffer is full or the stream ends, returns the number of bytes read.
+     */
+    private static int readFully(InputStream input, byte[] buffer) throws IOException {
+        int total = 0;
+        int read;
+        while (total < buffer.length && (read = input.read(buffer, total, buffer.length - total)) != -1)
+            total += read;
+        return total;
+    }
+
+    public static boolean isOnline(Context context) {
+        if (context == null) {
+            return false;
+        }
+        ConnectivityManager cm = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        // The active network is the one requests go through, whatever the state of the others is
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnectedOrConnecting();
     }
 
+    /**
+     * @deprecated Use {@link CacheKey}, which is much cheaper to create and compare, and makes a file name that's
+     * always short enough for the file system.
+     */
+    @Deprecated
     public static String getKey(String source, Dimension dimension) {
         if (source == null) {
             return null;
@@ -92,12 +525,17 @@ public class Utils {
         return null;
     }
     
+    /**
+     * @deprecated Use {@link CacheKey#getSource()}.
+     */
+    @Deprecated
     public static String getKeyUrl(String key) {
     	try {
 			key = URLDecoder.decode(key, "UTF-8");
 		} catch (UnsupportedEncodingException e) {
 			e.printStackTrace();
 		}
-    	return key.substring(0, key.lastIndexOf("_") - 1);
+    	int separator = key.lastIndexOf("_");
+    	return separator == -1 ? key : key.substring(0, separator);
     }
 }
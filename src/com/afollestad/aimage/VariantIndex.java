@@ -0,0 +1,81 @@
+package com.afollestad.aimage;
+
+import android.graphics.Bitmap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of which sizes of each source are in the memory cache, so that a request can be served from a larger
+ * image of the same source that's already in memory (the view scales it down when it's drawn) instead of loading
+ * another one from the disk.
+ *
+ * @author Aidan Follestad
+ */
+public class VariantIndex {
+
+    /**
+     * Maps sources to the keys of their images in memory, and the actual size of each of those images.
+     */
+    private final Map<String, Map<CacheKey, Dimension>> variants = new HashMap<String, Map<CacheKey, Dimension>>();
+
+    /**
+     * Called when an image is put in the memory cache.
+     */
+    public synchronized void add(CacheKey key, Bitmap bitmap) {
+        Map<CacheKey, Dimension> sizes = variants.get(key.getSource());
+        if (sizes == null) {
+            sizes = new HashMap<CacheKey, Dimension>(2);
+            variants.put(key.getSource(), sizes);
+        }
+        sizes.put(key, new Dimension(bitmap.getWidth(), bitmap.getHeight()));
+    }
+
+    /**
+     * Called when an image is removed from the memory cache.
+     */
+    public synchronized void remove(CacheKey key) {
+        Map<CacheKey, Dimension> sizes = variants.get(key.getSource());
+        if (sizes == null)
+            return;
+        sizes.remove(key);
+        if (sizes.isEmpty())
+            variants.remove(key.getSource());
+    }
+
+    public synchronized void clear() {
+        variants.clear();
+    }
+
+    /**
+     * Finds the key of the smallest image in memory that has the same source, transformation and decode config as the
+     * key, and is at least as large as its dimension on both sides. Returns null if there isn't one.
+     */
+    public synchronized CacheKey findLarger(CacheKey key) {
+        Dimension requested = key.getDimension();
+        if (requested == null)
+            return null;
+        Map<CacheKey, Dimension> sizes = variants.get(key.getSource());
+        if (sizes == null)
+            return null;
+        CacheKey best = null;
+        long bestPixels = Long.MAX_VALUE;
+        for (Map.Entry<CacheKey, Dimension> entry : sizes.entrySet()) {
+            CacheKey candidate = entry.getKey();
+            Dimension size = entry.getValue();
+            if (!sameTransformation(key, candidate) || key.getDecodeConfig() != candidate.getDecodeConfig() ||
+                    size.getWidth() < requested.getWidth() || size.getHeight() < requested.getHeight())
+                continue;
+            long pixels = (long) size.getWidth() * size.getHeight();
+            if (pixels < bestPixels) {
+                best = candidate;
+                bestPixels = pixels;
+            }
+        }
+        return best;
+    }
+
+    private static boolean sameTransformation(CacheKey a, CacheKey b) {
+        return a.getTransformation() == null ? b.getTransformation() == null : a.getTransformation().equals(b.getTransformation());
+    }
+}
@@ -0,0 +1,102 @@
+package com.afollestad.aimage.cache;
+
+import android.graphics.Bitmap;
+import com.afollestad.aimage.Utils;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Holds Bitmaps that are no longer used so that their memory can be reused when another image of the same size and
+ * config is decoded (see BitmapFactory.Options#inBitmap), instead of allocating a new Bitmap every time. The pool is
+ * bounded to a number of bytes; the least recently added Bitmaps are dropped once that's exceeded. Bitmaps are never
+ * recycled by the pool: reusable Bitmaps keep their pixels on the Java heap, so the garbage collector frees them just
+ * as well, and a Bitmap that something still draws can't be pulled out from under it.
+ *
+ * @author Aidan Follestad
+ */
+public class BitmapPool {
+
+    public BitmapPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private final int maxSize;
+    private int currentSize;
+    private int hits;
+    private int misses;
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<Bitmap>();
+
+    /**
+     * Takes a Bitmap with exactly the given size and config out of the pool, or returns null if there isn't one.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        Iterator<Bitmap> iterator = bitmaps.descendingIterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                iterator.remove();
+                currentSize -= Utils.getByteCount(bitmap);
+                hits++;
+                return bitmap;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Puts a Bitmap into the pool; nothing may draw or hold on to the Bitmap afterwards. Bitmaps that can't be reused
+     * (immutable or recycled ones) are ignored.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        int size = Utils.getByteCount(bitmap);
+        if (size > maxSize) {
+            return;
+        }
+        bitmaps.add(bitmap);
+        currentSize += size;
+        while (currentSize > maxSize) {
+            Bitmap eldest = bitmaps.removeFirst();
+            currentSize -= Utils.getByteCount(eldest);
+        }
+    }
+
+    /**
+     * Lets go of every Bitmap in the pool. They aren't recycled, since something may still be drawing one of them (a
+     * Bitmap can be evicted into the pool while it's still on screen); the garbage collector frees them once nothing
+     * does.
+     */
+    public synchronized void clear() {
+        bitmaps.clear();
+        currentSize = 0;
+    }
+
+    /**
+     * Gets the number of bytes of Bitmaps currently in the pool.
+     */
+    public synchronized int getSize() {
+        return currentSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets the number of times a Bitmap was taken out of the pool to be reused.
+     */
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of times the pool didn't have a Bitmap to reuse.
+     */
+    public synchronized int getMissCount() {
+        return misses;
+    }
+}
@@ -0,0 +1,104 @@
+package com.afollestad.aimage.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A pool of byte arrays that are used as I/O buffers, so reading and copying streams doesn't allocate a new buffer
+ * every time. Requested sizes are rounded up to the next power of two so buffers can be shared between requests of
+ * similar sizes. The pool holds at most a fixed number of bytes; the least recently returned buffers are dropped when
+ * that's exceeded.
+ *
+ * @author Aidan Follestad
+ */
+public class ByteArrayPool {
+
+    public ByteArrayPool(int sizeLimit) {
+        this.sizeLimit = sizeLimit;
+    }
+
+    public static final int DEFAULT_SIZE_LIMIT = 512 * 1024;
+
+    private static final ByteArrayPool DEFAULT_POOL = new ByteArrayPool(DEFAULT_SIZE_LIMIT);
+
+    private static final Comparator<byte[]> BY_SIZE = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] lhs, byte[] rhs) {
+            return lhs.length - rhs.length;
+        }
+    };
+
+    private final int sizeLimit;
+    private int currentSize;
+    /**
+     * The buffers in the order they were returned, used to find the buffer to drop when the pool is too large.
+     */
+    private final LinkedList<byte[]> buffersByLastUse = new LinkedList<byte[]>();
+    /**
+     * The same buffers sorted by size, used to find the smallest buffer that's large enough for a request.
+     */
+    private final List<byte[]> buffersBySize = new ArrayList<byte[]>(64);
+
+    /**
+     * Gets the pool that's shared by the whole library.
+     */
+    public static ByteArrayPool getDefault() {
+        return DEFAULT_POOL;
+    }
+
+    /**
+     * Gets a buffer that's at least the requested length, reusing one from the pool if possible.
+     */
+    public synchronized byte[] getBuf(int length) {
+        for (int i = 0; i < buffersBySize.size(); i++) {
+            byte[] buf = buffersBySize.get(i);
+            if (buf.length >= length) {
+                currentSize -= buf.length;
+                buffersBySize.remove(i);
+                buffersByLastUse.remove(buf);
+                return buf;
+            }
+        }
+        return new byte[roundUp(length)];
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used by the caller afterwards.
+     */
+    public synchronized void returnBuf(byte[] buf) {
+        if (buf == null || buf.length > sizeLimit) {
+            return;
+        }
+        buffersByLastUse.add(buf);
+        int position = Collections.binarySearch(buffersBySize, buf, BY_SIZE);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        buffersBySize.add(position, buf);
+        currentSize += buf.length;
+        trim();
+    }
+
+    /**
+     * Gets the number of bytes currently held by the pool.
+     */
+    public synchronized int getSize() {
+        return currentSize;
+    }
+
+    private void trim() {
+        while (currentSize > sizeLimit) {
+            byte[] buf = buffersByLastUse.removeFirst();
+            buffersBySize.remove(buf);
+            currentSize -= buf.length;
+        }
+    }
+
+    private static int roundUp(int length) {
+        int size = Integer.highestOneBit(Math.max(length, 1));
+        return size == length ? size : size << 1;
+    }
+}
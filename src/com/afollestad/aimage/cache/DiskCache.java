@@ -3,12 +3,41 @@ package com.afollestad.aimage.cache;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.util.Log;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Handles writing/reading images to and from the external disk cache.
+ * <p/>
+ * The cache is bounded to a maximum number of bytes, and evicts the least recently used entries once it grows past
+ * that. An index of every entry is kept in memory and persisted to a journal file in the cache directory, which is
+ * replayed the first time the cache is used; lookups never have to touch the file system to find out that an entry
+ * doesn't exist. Entries are written to a temporary file first and renamed into place once they're complete, so a
+ * crash can never leave a half-written image behind.
+ * <p/>
+ * Each entry can also carry a small metadata string (e.g. the HTTP caching headers of a downloaded image), which is
+ * kept in the journal next to the entry and removed along with it.
  *
  * @author Aidan Follestad
  */
@@ -19,35 +48,516 @@ public class DiskCache {
         setCacheDirectory(null);
     }
 
+    public static final long DEFAULT_MAX_SIZE = 50 * 1024 * 1024;
+
+    private static final String DEFAULT_DIR_NAME = "aimage";
+    private static final String TEMP_DIR_NAME = "tmp";
+    private static final String ENTRY_SUFFIX = ".img";
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    private static final String MAGIC = "aimage.DiskCache";
+    private static final String VERSION = "1";
+    private static final String CLEAN = "CLEAN";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+    private static final String META = "META";
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
     private Context context;
-    private static File CACHE_DIR;
+    private File cacheDir;
+    private File tempDir;
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private long size;
+    private boolean initialized;
+    private Writer journalWriter;
+    private int redundantOpCount;
+    /**
+     * Numbers temporary files, so two editors for the same key never write to the same file; an editor can outlive
+     * the thread that opened it (e.g. a download that's waiting to be decoded).
+     */
+    private long tempFileCount;
+    /**
+     * Maps keys to the size of their file, in access order (least recently used first).
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+    /**
+     * Maps keys to the metadata of their entry, for the entries that have any.
+     */
+    private final HashMap<String, String> metadata = new HashMap<String, String>();
 
+    /**
+     * Encodes an image into the cache. Images with transparency are stored as PNG so their alpha channel survives,
+     * everything else is stored as JPEG.
+     */
     public void put(String key, Bitmap image) throws Exception {
+        Editor editor = edit(key);
+        try {
+            Bitmap.CompressFormat format = image.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+            if (!image.compress(format, 100, editor.newOutputStream()))
+                throw new IOException("Failed to compress the image for " + key);
+            editor.commit();
+        } finally {
+            editor.abort();
+        }
+    }
+
+    /**
+     * Stores already encoded image data in the cache as-is, e.g. the original bytes of a downloaded image.
+     */
+    public void put(String key, byte[] data) throws Exception {
+        Editor editor = edit(key);
         try {
-            FileOutputStream os = new FileOutputStream(new File(CACHE_DIR, key + ".jpeg"));
-            image.compress(Bitmap.CompressFormat.JPEG, 100, os);
-        } catch (Exception e) {
-            throw e;
+            editor.newOutputStream().write(data);
+            editor.commit();
+        } finally {
+            editor.abort();
         }
     }
 
+    /**
+     * Starts writing a new entry for a key. Nothing is visible in the cache until {@link Editor#commit()} is
+     * called; the editor must be either committed or aborted.
+     */
+    public Editor edit(String key) {
+        return new Editor(key, newTempFile(key));
+    }
+
     public Bitmap get(String key) throws Exception {
-        File fi = new File(CACHE_DIR, key + ".jpeg");
-        if(!fi.exists()) {
+        File fi = getFile(key);
+        if (fi == null) {
             return null;
         }
         return BitmapFactory.decodeFile(fi.getAbsolutePath());
     }
-    
+
+    /**
+     * Gets the file holding the entry for a key and marks the entry as recently used, or returns null if there's no
+     * entry for the key.
+     */
+    public synchronized File getFile(String key) {
+        initialize();
+        // get() rather than containsKey(), it moves the entry to the most recently used end like a READ line does
+        Long length = entries.get(key);
+        if (length == null) {
+            return null;
+        }
+        File fi = new File(cacheDir, key + ENTRY_SUFFIX);
+        if (!fi.exists()) {
+            // Deleted from outside of the cache (e.g. the user cleared it from the App Info screen)
+            entries.remove(key);
+            size -= length;
+            metadata.remove(key);
+            appendJournal(REMOVE + ' ' + key, true);
+            return null;
+        }
+        appendJournal(READ + ' ' + key, false);
+        return fi;
+    }
+
+    /**
+     * Returns true if an entry exists for the key, without touching the file system or the entry's access order.
+     */
+    public synchronized boolean contains(String key) {
+        initialize();
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Gets the metadata of the entry for a key, or null if there's no entry or it has no metadata. Doesn't touch the
+     * file system or the entry's access order.
+     */
+    public synchronized String getMetadata(String key) {
+        initialize();
+        return metadata.get(key);
+    }
+
+    /**
+     * Replaces the metadata of an existing entry, without rewriting the entry itself. Does nothing if there's no entry
+     * for the key.
+     */
+    public synchronized void setMetadata(String key, String value) {
+        initialize();
+        if (!entries.containsKey(key))
+            return;
+        if (value == null) {
+            if (metadata.remove(key) != null)
+                appendJournal(META + ' ' + key, true);
+        } else {
+            metadata.put(key, value);
+            appendJournal(META + ' ' + key + ' ' + encodeMetadata(value), true);
+        }
+    }
+
+    /**
+     * Removes the entry for a key from the cache, if it exists.
+     */
+    public synchronized void remove(String key) {
+        initialize();
+        Long length = entries.remove(key);
+        if (length != null) {
+            deleteEntry(key, length);
+        }
+    }
+
+    /**
+     * Deletes every entry in the cache.
+     */
+    public synchronized void clear() {
+        initialize();
+        for (String key : new ArrayList<String>(entries.keySet())) {
+            remove(key);
+        }
+        rebuildJournal();
+    }
+
     public String getFilePath(String key)  {
-    	File fi = new File(CACHE_DIR, key + ".jpeg");
-    	return fi.getPath();
+        File fi = new File(cacheDir, key + ENTRY_SUFFIX);
+        return fi.getPath();
+    }
+
+    /**
+     * Gets the number of bytes currently used by entries in the cache.
+     */
+    public synchronized long getSize() {
+        initialize();
+        return size;
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes the cache can use before least recently used entries are evicted.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("The maximum size of the disk cache must be greater than 0.");
+        this.maxSize = maxSize;
+        if (initialized)
+            trimToSize();
+    }
+
+    public synchronized void setCacheDirectory(File dir) {
+        if (dir == null) {
+            File base = context.getExternalCacheDir();
+            if (base == null)
+                base = context.getCacheDir();
+            dir = new File(base, DEFAULT_DIR_NAME);
+        }
+        if (dir.equals(cacheDir))
+            return;
+        closeJournal();
+        entries.clear();
+        metadata.clear();
+        size = 0;
+        redundantOpCount = 0;
+        initialized = false;
+        cacheDir = dir;
+        tempDir = new File(cacheDir, TEMP_DIR_NAME);
+    }
+
+    private synchronized File newTempFile(String key) {
+        initialize();
+        return new File(tempDir, key + '.' + (tempFileCount++) + ".tmp");
+    }
+
+    /**
+     * Atomically moves a completely written temporary file into place as the entry for a key.
+     */
+    private synchronized File commit(String key, File temp, String meta) throws IOException {
+        initialize();
+        File fi = new File(cacheDir, key + ENTRY_SUFFIX);
+        Long previous = entries.remove(key);
+        if (previous != null)
+            size -= previous;
+        metadata.remove(key);
+        if (!temp.renameTo(fi)) {
+            if (previous != null)
+                appendJournal(REMOVE + ' ' + key, true);
+            throw new IOException("Failed to move " + temp.getName() + " into the cache.");
+        }
+        long length = fi.length();
+        entries.put(key, length);
+        size += length;
+        appendJournal(CLEAN + ' ' + key + ' ' + length, meta == null);
+        if (meta != null) {
+            metadata.put(key, meta);
+            appendJournal(META + ' ' + key + ' ' + encodeMetadata(meta), true);
+        }
+        trimToSize(key);
+        return fi;
+    }
+
+    private void trimToSize() {
+        trimToSize(null);
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits in its maximum size.
+     *
+     * @param keep A key that's never evicted, or null. An entry that was just committed is kept even if it's larger
+     *             than the whole cache, since its caller is about to read it; it goes with the next eviction.
+     */
+    private void trimToSize(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep))
+                continue;
+            iterator.remove();
+            deleteEntry(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void deleteEntry(String key, long length) {
+        new File(cacheDir, key + ENTRY_SUFFIX).delete();
+        size -= length;
+        metadata.remove(key);
+        appendJournal(REMOVE + ' ' + key, true);
+    }
+
+    /**
+     * Loads the index, from the journal if there is a valid one or from a scan of the cache directory otherwise.
+     * Only ever does work the first time it's called for a directory.
+     */
+    private void initialize() {
+        if (initialized)
+            return;
+        initialized = true;
+        cacheDir.mkdirs();
+        tempDir.mkdirs();
+        // Temporary files left behind by a crash are never going to be committed
+        File[] leftovers = tempDir.listFiles();
+        if (leftovers != null) {
+            for (File fi : leftovers)
+                fi.delete();
+        }
+
+        File journal = new File(cacheDir, JOURNAL_FILE);
+        if (journal.exists()) {
+            try {
+                readJournal(journal);
+                journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true), "UTF-8"));
+                return;
+            } catch (IOException e) {
+                Log.w("AImage.DiskCache", "The disk cache journal is corrupt, rebuilding it: " + e.getMessage());
+                entries.clear();
+                metadata.clear();
+                size = 0;
+            }
+        }
+        scanDirectory();
+        rebuildJournal();
+    }
+
+    private void readJournal(File journal) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), "UTF-8"));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine()))
+                throw new IOException("Unexpected journal header");
+            int lineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    // The last line may have been cut off by a crash; everything before it is still valid
+                    continue;
+                }
+                String key = parts[1];
+                if (CLEAN.equals(parts[0]) && parts.length == 3) {
+                    Long previous = entries.put(key, Long.parseLong(parts[2]));
+                    if (previous != null)
+                        size -= previous;
+                    size += Long.parseLong(parts[2]);
+                    metadata.remove(key);
+                } else if (REMOVE.equals(parts[0])) {
+                    Long previous = entries.remove(key);
+                    if (previous != null)
+                        size -= previous;
+                    metadata.remove(key);
+                } else if (META.equals(parts[0])) {
+                    if (parts.length == 3 && entries.containsKey(key))
+                        metadata.put(key, URLDecoder.decode(parts[2], "UTF-8"));
+                    else
+                        metadata.remove(key);
+                } else if (READ.equals(parts[0])) {
+                    // Moves the entry to the most recently used end of the index
+                    entries.get(key);
+                }
+            }
+            redundantOpCount = lineCount - entries.size() - metadata.size();
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid entry size in journal");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid entry metadata in journal");
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Builds the index from the files in the cache directory, oldest first. Only used when there's no journal to
+     * replay, e.g. the first time a directory is used as the cache.
+     */
+    private void scanDirectory() {
+        File[] files = cacheDir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long left = lhs.lastModified();
+                long right = rhs.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        for (File fi : files) {
+            String name = fi.getName();
+            if (!fi.isFile() || !name.endsWith(ENTRY_SUFFIX))
+                continue;
+            long length = fi.length();
+            entries.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), length);
+            size += length;
+        }
+        trimToSize();
+    }
+
+    /**
+     * Writes a compact journal holding only the current entries, replacing the existing one.
+     */
+    private void rebuildJournal() {
+        closeJournal();
+        File temp = new File(cacheDir, JOURNAL_FILE_TEMP);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+            writer.write(MAGIC + '\n' + VERSION + '\n');
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+                String meta = metadata.get(entry.getKey());
+                if (meta != null)
+                    writer.write(META + ' ' + entry.getKey() + ' ' + encodeMetadata(meta) + '\n');
+            }
+            writer.close();
+            writer = null;
+            File journal = new File(cacheDir, JOURNAL_FILE);
+            if (!temp.renameTo(journal))
+                throw new IOException("Failed to replace the journal");
+            journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true), "UTF-8"));
+            redundantOpCount = 0;
+        } catch (IOException e) {
+            // The cache keeps working from the in-memory index, it just won't survive a restart
+            Log.w("AImage.DiskCache", "Failed to write the disk cache journal: " + e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    private void appendJournal(String line, boolean flush) {
+        if (journalWriter == null)
+            return;
+        try {
+            journalWriter.write(line + '\n');
+            if (flush)
+                journalWriter.flush();
+        } catch (IOException e) {
+            Log.w("AImage.DiskCache", "Failed to append to the disk cache journal: " + e.getMessage());
+        }
+        redundantOpCount++;
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size())
+            rebuildJournal();
+    }
+
+    /**
+     * Escapes metadata so it fits in a single journal field, without spaces or line breaks.
+     */
+    private static String encodeMetadata(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Every JVM supports UTF-8
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void closeJournal() {
+        if (journalWriter != null) {
+            IOUtils.closeQuietly(journalWriter);
+            journalWriter = null;
+        }
     }
 
-    public void setCacheDirectory(File dir) {
-        if(dir == null)
-            CACHE_DIR = context.getExternalCacheDir();
-        else
-            CACHE_DIR = dir;
+    /**
+     * Writes a single entry to a temporary file, which is moved into place atomically when it's committed.
+     */
+    public class Editor {
+
+        private Editor(String key, File temp) {
+            this.key = key;
+            this.temp = temp;
+        }
+
+        private final String key;
+        private final File temp;
+        private OutputStream os;
+        private String meta;
+        private boolean done;
+
+        /**
+         * Opens the stream that the entry's data is written to.
+         */
+        public OutputStream newOutputStream() throws IOException {
+            if (os == null)
+                os = new BufferedOutputStream(new FileOutputStream(temp));
+            return os;
+        }
+
+        /**
+         * Gets the temporary file the entry is being written to.
+         */
+        public File getFile() {
+            return temp;
+        }
+
+        /**
+         * Sets the metadata that's stored with the entry once it's committed.
+         */
+        public void setMetadata(String meta) {
+            this.meta = meta;
+        }
+
+        /**
+         * Closes the stream without publishing the entry, so the written data can be read from {@link #getFile()}
+         * before the editor is committed or aborted.
+         */
+        public File close() throws IOException {
+            if (os != null)
+                os.close();
+            return temp;
+        }
+
+        /**
+         * Publishes the written data as the entry for the key, and returns the file it now lives in.
+         */
+        public File commit() throws IOException {
+            if (done)
+                throw new IllegalStateException("The editor for " + key + " was already committed or aborted.");
+            if (os != null)
+                os.close();
+            done = true;
+            return DiskCache.this.commit(key, temp, meta);
+        }
+
+        /**
+         * Discards the written data, does nothing if the editor was already committed.
+         */
+        public void abort() {
+            IOUtils.closeQuietly(os);
+            done = true;
+            if (temp.exists())
+                temp.delete();
+        }
     }
 }
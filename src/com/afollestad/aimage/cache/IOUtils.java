@@ -3,6 +3,7 @@ package com.afollestad.aimage.cache;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 
 public class IOUtils {
@@ -36,13 +37,38 @@ public class IOUtils {
     }
 
     private static long copyLarge(InputStream input, OutputStream output) throws IOException {
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-        long count = 0;
-        int n = 0;
-        while (-1 != (n = input.read(buffer))) {
-            output.write(buffer, 0, n);
-            count += n;
+        byte[] buffer = ByteArrayPool.getDefault().getBuf(DEFAULT_BUFFER_SIZE);
+        try {
+            long count = 0;
+            int n = 0;
+            while (-1 != (n = input.read(buffer))) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // The load that's copying was cancelled, stop reading instead of finishing the whole stream
+                    throw new InterruptedIOException("Copy interrupted after " + count + " bytes.");
+                }
+                output.write(buffer, 0, n);
+                count += n;
+            }
+            return count;
+        } finally {
+            ByteArrayPool.getDefault().returnBuf(buffer);
+        }
+    }
+
+    /**
+     * Reads a stream to its end, discarding the data. Returns the number of bytes that were read.
+     */
+    public static long drain(InputStream input) throws IOException {
+        byte[] buffer = ByteArrayPool.getDefault().getBuf(DEFAULT_BUFFER_SIZE);
+        try {
+            long count = 0;
+            int n;
+            while (-1 != (n = input.read(buffer))) {
+                count += n;
+            }
+            return count;
+        } finally {
+            ByteArrayPool.getDefault().returnBuf(buffer);
         }
-        return count;
     }
-}
\ No newline at end of file
+}
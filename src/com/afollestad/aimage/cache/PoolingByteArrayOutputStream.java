@@ -0,0 +1,56 @@
+package com.afollestad.aimage.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * A ByteArrayOutputStream that takes its internal buffers from a {@link ByteArrayPool} instead of allocating them.
+ * The current buffer is returned to the pool when the stream is closed, so it must be closed after use.
+ */
+public class PoolingByteArrayOutputStream extends ByteArrayOutputStream {
+
+    public PoolingByteArrayOutputStream(ByteArrayPool pool) {
+        this(pool, DEFAULT_SIZE);
+    }
+
+    public PoolingByteArrayOutputStream(ByteArrayPool pool, int size) {
+        this.pool = pool;
+        buf = pool.getBuf(Math.max(size, DEFAULT_SIZE));
+    }
+
+    private static final int DEFAULT_SIZE = 256;
+
+    private final ByteArrayPool pool;
+
+    @Override
+    public void close() throws IOException {
+        pool.returnBuf(buf);
+        buf = null;
+        super.close();
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int offset, int len) {
+        expand(len);
+        super.write(buffer, offset, len);
+    }
+
+    @Override
+    public synchronized void write(int oneByte) {
+        expand(1);
+        super.write(oneByte);
+    }
+
+    /**
+     * Makes sure the buffer can hold i more bytes, swapping it for a larger pooled one if it can't.
+     */
+    private void expand(int i) {
+        if (count + i <= buf.length) {
+            return;
+        }
+        byte[] newbuf = pool.getBuf((count + i) * 2);
+        System.arraycopy(buf, 0, newbuf, 0, count);
+        pool.returnBuf(buf);
+        buf = newbuf;
+    }
+}
@@ -0,0 +1,80 @@
+package com.afollestad.aimage.cache;
+
+import android.graphics.Bitmap;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A second memory cache tier for images that were evicted from the main memory cache. Images are only softly
+ * referenced, so the garbage collector is free to reclaim them whenever memory runs low; until it does, an image
+ * that's needed again shortly after it was evicted doesn't have to be decoded again. The number of entries is bounded
+ * too, so the tier's bookkeeping can't grow without limit.
+ *
+ * @author Aidan Follestad
+ */
+public class SoftBitmapCache<K> {
+
+    public SoftBitmapCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<K, Entry<K>>(0, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<K>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private final LinkedHashMap<K, Entry<K>> entries;
+    private final ReferenceQueue<Bitmap> queue = new ReferenceQueue<Bitmap>();
+
+    /**
+     * Gets and removes the image for a key, or returns null if it isn't in the tier or was reclaimed.
+     */
+    public synchronized Bitmap remove(K key) {
+        purge();
+        Entry<K> entry = entries.remove(key);
+        if (entry == null)
+            return null;
+        Bitmap bitmap = entry.get();
+        return bitmap != null && !bitmap.isRecycled() ? bitmap : null;
+    }
+
+    public synchronized void put(K key, Bitmap bitmap) {
+        purge();
+        entries.put(key, new Entry<K>(key, bitmap, queue));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        purge();
+    }
+
+    public synchronized int size() {
+        purge();
+        return entries.size();
+    }
+
+    /**
+     * Removes the entries whose image has been reclaimed by the garbage collector.
+     */
+    @SuppressWarnings("unchecked")
+    private void purge() {
+        Entry<K> entry;
+        while ((entry = (Entry<K>) queue.poll()) != null) {
+            if (entries.get(entry.key) == entry)
+                entries.remove(entry.key);
+        }
+    }
+
+    private static class Entry<K> extends SoftReference<Bitmap> {
+
+        public Entry(K key, Bitmap bitmap, ReferenceQueue<Bitmap> queue) {
+            super(bitmap, queue);
+            this.key = key;
+        }
+
+        private final K key;
+    }
+}
@@ -0,0 +1,39 @@
+package com.afollestad.aimage.loaders;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.afollestad.aimage.SourceLoader;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Loads asset:///path/to/image.png sources from the app's assets directory. Assets are streamed straight out of the
+ * APK, which supports rewinding so they're never buffered.
+ */
+public class AssetSourceLoader implements SourceLoader {
+
+    public AssetSourceLoader(Context context) {
+        this.context = context;
+    }
+
+    private final Context context;
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    @Override
+    public Result open(String source) throws IOException {
+        Uri uri = Uri.parse(source);
+        // Both asset:///images/a.png and asset://images/a.png are accepted
+        String path = (uri.getAuthority() != null ? uri.getAuthority() : "") + (uri.getPath() != null ? uri.getPath() : "");
+        while (path.startsWith("/"))
+            path = path.substring(1);
+        if (path.length() == 0)
+            throw new FileNotFoundException("Invalid asset source: " + source);
+        return Result.fromStream(context.getAssets().open(path));
+    }
+}
@@ -0,0 +1,49 @@
+package com.afollestad.aimage.loaders;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import com.afollestad.aimage.SourceLoader;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Loads content:// sources through the app's ContentResolver. Providers that are backed by files (e.g. the media
+ * store) are decoded straight from a file descriptor; others (e.g. ones that stream their data through a pipe) are
+ * read as a stream.
+ */
+public class ContentSourceLoader implements SourceLoader {
+
+    public ContentSourceLoader(Context context) {
+        this.context = context;
+    }
+
+    private final Context context;
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    @Override
+    public Result open(String source) throws IOException {
+        Uri uri = Uri.parse(source);
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            // The provider doesn't hand out file descriptors, or the source doesn't exist
+        } catch (UnsupportedOperationException e) {
+            // Same as above, for providers that don't implement openFile()
+        }
+        if (descriptor != null) {
+            // A pipe or socket can't be read twice, and has no size
+            if (descriptor.getStatSize() >= 0)
+                return Result.fromFileDescriptor(descriptor);
+            descriptor.close();
+        }
+        return Result.fromStream(context.getContentResolver().openInputStream(uri));
+    }
+}
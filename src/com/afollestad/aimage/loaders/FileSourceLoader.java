@@ -0,0 +1,42 @@
+package com.afollestad.aimage.loaders;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.afollestad.aimage.SourceLoader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Loads file:// sources and plain file paths, which are decoded straight from the file. Sources in the
+ * file:///android_asset/ directory are read from the app's assets, like they are by a WebView.
+ */
+public class FileSourceLoader implements SourceLoader {
+
+    public FileSourceLoader(Context context) {
+        this.context = context;
+    }
+
+    private static final String ANDROID_ASSET = "/android_asset/";
+
+    private final Context context;
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    @Override
+    public Result open(String source) throws IOException {
+        String path = source.startsWith("/") ? source : Uri.parse(source).getPath();
+        if (path == null)
+            throw new FileNotFoundException("Invalid file source: " + source);
+        if (path.startsWith(ANDROID_ASSET))
+            return Result.fromStream(context.getAssets().open(path.substring(ANDROID_ASSET.length())));
+        if (!new File(path).isFile())
+            throw new FileNotFoundException(path);
+        return Result.fromFile(path);
+    }
+}
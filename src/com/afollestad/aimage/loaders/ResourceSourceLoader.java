@@ -0,0 +1,52 @@
+package com.afollestad.aimage.loaders;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.Uri;
+
+import com.afollestad.aimage.SourceLoader;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Loads android.resource:// sources from the app's resources, in either of the forms Android uses:
+ * android.resource://package/1234567 (a resource ID) or android.resource://package/drawable/name.
+ */
+public class ResourceSourceLoader implements SourceLoader {
+
+    public ResourceSourceLoader(Context context) {
+        this.context = context;
+    }
+
+    private final Context context;
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    @Override
+    public Result open(String source) throws IOException {
+        Uri uri = Uri.parse(source);
+        List<String> segments = uri.getPathSegments();
+        int id = 0;
+        if (segments.size() == 1) {
+            try {
+                id = Integer.parseInt(segments.get(0));
+            } catch (NumberFormatException e) {
+                // Not a resource ID
+            }
+        } else if (segments.size() == 2) {
+            id = context.getResources().getIdentifier(segments.get(1), segments.get(0), uri.getAuthority());
+        }
+        if (id == 0)
+            throw new FileNotFoundException("Invalid resource source: " + source);
+        try {
+            return Result.fromStream(context.getResources().openRawResource(id));
+        } catch (Resources.NotFoundException e) {
+            throw new FileNotFoundException("Resource not found: " + source);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.afollestad.aimage.metrics;
+
+/**
+ * The events counted by {@link ImageMetrics}.
+ */
+public enum Counter {
+    /**
+     * Asynchronous requests made through the ImageManager.
+     */
+    REQUEST,
+    /**
+     * Asynchronous requests that were attached to an identical load already in flight.
+     */
+    DEDUPED_REQUEST,
+    MEMORY_HIT,
+    MEMORY_MISS,
+    /**
+     * Memory hits that were served by an image that had been evicted, but was still softly referenced. These are
+     * counted as memory hits too.
+     */
+    SOFT_REFERENCE_HIT,
+    DISK_HIT,
+    DISK_MISS,
+    /**
+     * Images that were downloaded in full.
+     */
+    NETWORK_DOWNLOAD,
+    /**
+     * Stale images in the disk cache that the server said were still up to date.
+     */
+    NETWORK_NOT_MODIFIED,
+    NETWORK_FAILURE,
+    BYTES_DOWNLOADED,
+    /**
+     * Images evicted from the memory cache to make room for others.
+     */
+    MEMORY_EVICTION
+}
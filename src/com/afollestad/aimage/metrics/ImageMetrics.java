@@ -0,0 +1,149 @@
+package com.afollestad.aimage.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts cache hits and misses and records stage latencies for an {@link com.afollestad.aimage.ImageManager}, see
+ * {@link com.afollestad.aimage.ImageManager#getMetrics()}. Everything is recorded with lock-free atomic operations, so
+ * it's cheap enough to stay on in production; {@link #snapshot()} gives a consistent-enough copy to log or upload.
+ *
+ * @author Aidan Follestad
+ */
+public class ImageMetrics {
+
+    public ImageMetrics() {
+        histograms = new Histogram[Timing.values().length];
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new Histogram();
+    }
+
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    private final Histogram[] histograms;
+    private final List<MetricsListener> listeners = new CopyOnWriteArrayList<MetricsListener>();
+    private volatile boolean enabled = true;
+
+    /**
+     * Turns recording on or off, it's on by default. Counts and histograms keep their values while it's off.
+     */
+    public ImageMetrics setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void addListener(MetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void increment(Counter counter) {
+        add(counter, 1);
+    }
+
+    public void add(Counter counter, long delta) {
+        if (!enabled)
+            return;
+        counters.addAndGet(counter.ordinal(), delta);
+        for (MetricsListener listener : listeners)
+            listener.onCount(counter, delta);
+    }
+
+    /**
+     * Records the time since a start time that was taken with {@link #now()}.
+     */
+    public void recordSince(Timing timing, long startNanos) {
+        if (!enabled || startNanos == 0) {
+            // Recording was off when the start time was taken
+            return;
+        }
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        histograms[timing.ordinal()].record(micros);
+        for (MetricsListener listener : listeners)
+            listener.onTiming(timing, micros);
+    }
+
+    /**
+     * Gets a start time for {@link #recordSince(Timing, long)}, or 0 without reading the clock if recording is off.
+     */
+    public long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * Copies the current counts and histograms.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[counters.length()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = counters.get(i);
+        Histogram.Snapshot[] timings = new Histogram.Snapshot[histograms.length];
+        for (int i = 0; i < timings.length; i++)
+            timings[i] = histograms[i].snapshot();
+        return new Snapshot(counts, timings);
+    }
+
+    /**
+     * Sets every count and histogram back to zero, e.g. after a snapshot was uploaded.
+     */
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++)
+            counters.set(i, 0);
+        for (Histogram histogram : histograms)
+            histogram.reset();
+    }
+
+    /**
+     * An immutable copy of the metrics at one point in time.
+     */
+    public static class Snapshot {
+
+        private Snapshot(long[] counts, Histogram.Snapshot[] timings) {
+            this.counts = counts;
+            this.timings = timings;
+        }
+
+        private final long[] counts;
+        private final Histogram.Snapshot[] timings;
+
+        public long getCount(Counter counter) {
+            return counts[counter.ordinal()];
+        }
+
+        /**
+         * Gets the latencies recorded for a stage, in microseconds.
+         */
+        public Histogram.Snapshot getTiming(Timing timing) {
+            return timings[timing.ordinal()];
+        }
+
+        /**
+         * Gets the fraction of lookups in a cache that were hits, or 0 if there were none.
+         */
+        public double getHitRate(Counter hit, Counter miss) {
+            long total = getCount(hit) + getCount(miss);
+            return total == 0 ? 0 : (double) getCount(hit) / total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Counter counter : Counter.values())
+                sb.append(counter.name()).append('=').append(getCount(counter)).append('\n');
+            for (Timing timing : Timing.values())
+                sb.append(timing.name()).append(": ").append(getTiming(timing)).append('\n');
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.afollestad.aimage.metrics;
+
+/**
+ * Receives every event recorded by {@link ImageMetrics}, e.g. to forward them to an analytics service. Listeners are
+ * called on the thread that recorded the event (usually a worker thread), so they must be quick and thread safe.
+ */
+public interface MetricsListener {
+
+    public abstract void onCount(Counter counter, long delta);
+
+    /**
+     * @param micros The recorded latency, in microseconds.
+     */
+    public abstract void onTiming(Timing timing, long micros);
+}
@@ -0,0 +1,33 @@
+package com.afollestad.aimage.metrics;
+
+/**
+ * The latencies recorded by {@link ImageMetrics}, each into its own {@link Histogram}.
+ */
+public enum Timing {
+    /**
+     * Loading an image from the disk cache, decoding included.
+     */
+    DISK_READ,
+    /**
+     * Encoding and writing an image into the disk cache.
+     */
+    DISK_WRITE,
+    /**
+     * Decoding an image that didn't come from the disk cache: a download, an image from the device (e.g. a
+     * content:// or file:// source) or another source, or a region of a large image.
+     */
+    DECODE,
+    /**
+     * Downloading an image, from the request until its body is written to disk. Downloads are decoded separately
+     * afterwards, see {@link #DECODE}.
+     */
+    NETWORK,
+    /**
+     * The time work waits in the disk executor's queue before a thread picks it up.
+     */
+    DISK_QUEUE_WAIT,
+    /**
+     * The time work waits in the network executor's queue before a thread picks it up.
+     */
+    NETWORK_QUEUE_WAIT
+}
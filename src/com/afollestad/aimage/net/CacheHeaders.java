@@ -0,0 +1,174 @@
+package com.afollestad.aimage.net;
+
+import java.net.URLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The HTTP caching information of a downloaded image: the validators (ETag and Last-Modified) that are sent with a
+ * conditional request to revalidate it, and the time until which it's fresh and can be used without asking the server.
+ * It's stored as metadata next to the image in the disk cache.
+ *
+ * @author Aidan Follestad
+ */
+public final class CacheHeaders {
+
+    public CacheHeaders(String etag, String lastModified, long expires, boolean noStore) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.expires = expires;
+        this.noStore = noStore;
+    }
+
+    /**
+     * The expiry time of responses that don't say how long they're fresh for, and don't have a Last-Modified date to
+     * guess it from. Images are usually never changed once they're published, so they're kept until they're evicted.
+     */
+    public static final long NEVER_EXPIRES = Long.MAX_VALUE;
+
+    private final String etag;
+    private final String lastModified;
+    private final long expires;
+    private final boolean noStore;
+
+    /**
+     * Reads the caching headers of a response. Validators that a 304 response doesn't repeat are taken from the
+     * headers of the cached response it's revalidating, if any.
+     */
+    public static CacheHeaders fromConnection(URLConnection conn, CacheHeaders previous) {
+        long now = System.currentTimeMillis();
+        String etag = conn.getHeaderField("ETag");
+        String lastModified = conn.getHeaderField("Last-Modified");
+        if (previous != null) {
+            if (etag == null)
+                etag = previous.etag;
+            if (lastModified == null)
+                lastModified = previous.lastModified;
+        }
+
+        long maxAge = -1;
+        boolean noStore = false;
+        String cacheControl = conn.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase();
+                if (directive.equals("no-store")) {
+                    noStore = true;
+                } else if (directive.equals("no-cache")) {
+                    maxAge = 0;
+                } else if (directive.startsWith("max-age=") && maxAge != 0) {
+                    try {
+                        maxAge = Long.parseLong(directive.substring("max-age=".length()).replace("\"", ""));
+                    } catch (NumberFormatException e) {
+                        // An invalid max-age means the response is stale
+                        maxAge = 0;
+                    }
+                }
+            }
+        }
+
+        long expires;
+        // The server's clock is only compared against its own Date header, so a skewed device clock doesn't matter
+        long date = conn.getHeaderFieldDate("Date", now);
+        if (maxAge >= 0) {
+            expires = now + maxAge * 1000;
+        } else if (conn.getHeaderField("Expires") != null) {
+            // An Expires value that can't be parsed (usually "0" or "-1") means the response is already stale
+            long expiresDate = conn.getHeaderFieldDate("Expires", date);
+            expires = now + Math.max(0, expiresDate - date);
+        } else if (lastModified != null) {
+            // The usual heuristic: a response stays fresh for a tenth of the time since it was last changed. The date is
+            // parsed from the merged value, a 304 usually doesn't repeat the Last-Modified header of the cached response
+            long lastModifiedDate = parseDate(lastModified, date);
+            expires = now + Math.max(0, date - lastModifiedDate) / 10;
+        } else {
+            expires = NEVER_EXPIRES;
+        }
+        return new CacheHeaders(etag, lastModified, expires, noStore);
+    }
+
+    /**
+     * Parses an HTTP date (RFC 1123, e.g. "Mon, 01 Jul 2013 00:00:00 GMT"), returns the default value if it's invalid.
+     */
+    private static long parseDate(String value, long defaultValue) {
+        // SimpleDateFormat isn't thread safe, so every call gets its own
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value).getTime();
+        } catch (ParseException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Parses headers stored with {@link #toString()}, returns null if the value is null or invalid.
+     */
+    public static CacheHeaders parse(String value) {
+        if (value == null)
+            return null;
+        String[] parts = value.split("\n", -1);
+        if (parts.length != 3)
+            return null;
+        try {
+            return new CacheHeaders(parts[0].isEmpty() ? null : parts[0], parts[1].isEmpty() ? null : parts[1],
+                    Long.parseLong(parts[2]), false);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Gets the time (in milliseconds since the epoch) until which the response is fresh.
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+    /**
+     * Returns true if the server asked for the response not to be stored in any cache.
+     */
+    public boolean isNoStore() {
+        return noStore;
+    }
+
+    /**
+     * Returns true if the response can be revalidated with a conditional request.
+     */
+    public boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+
+    public boolean isStale(long now) {
+        return now >= expires;
+    }
+
+    /**
+     * Returns true if both headers identify the same version of a response, regardless of how long they're fresh for.
+     */
+    public boolean isSameVersion(CacheHeaders other) {
+        return other != null && equal(etag, other.etag) && equal(lastModified, other.lastModified);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Gets the form the headers are stored in, see {@link #parse(String)}.
+     */
+    @Override
+    public String toString() {
+        return (etag != null ? etag : "") + '\n' + (lastModified != null ? lastModified : "") + '\n' + expires;
+    }
+}
@@ -0,0 +1,73 @@
+package com.afollestad.aimage.net;
+
+import com.afollestad.aimage.cache.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Opens network image sources for an {@link com.afollestad.aimage.ImageManager}. The default implementation is
+ * {@link HttpFetcher}; a custom one can be set with {@link com.afollestad.aimage.ImageManager#setFetcher(Fetcher)},
+ * e.g. to add authentication headers or use a different HTTP client.
+ * <p/>
+ * Fetchers are called from several network threads at once, so they must be thread safe.
+ */
+public interface Fetcher {
+
+    /**
+     * Requests a URL. If validators are given (the caching headers of a copy that's already in the disk cache), the
+     * request should be conditional, and a {@link Response#notModified(CacheHeaders)} response returned if the copy
+     * is still up to date.
+     *
+     * @throws HttpStatusException If the server responded with an unsuccessful status code.
+     */
+    public abstract Response fetch(String url, CacheHeaders validators) throws IOException;
+
+    /**
+     * The result of a fetch. It must be closed once it's no longer needed; reading the body to its end before closing
+     * it lets the connection be reused for the next request.
+     */
+    public static class Response implements Closeable {
+
+        public Response(InputStream body, CacheHeaders headers) {
+            this.body = body;
+            this.headers = headers;
+        }
+
+        /**
+         * Creates a response for a conditional request that found the cached copy to still be up to date.
+         *
+         * @param headers The caching headers of the cached copy, updated with the ones the server sent back.
+         */
+        public static Response notModified(CacheHeaders headers) {
+            return new Response(null, headers);
+        }
+
+        private final InputStream body;
+        private final CacheHeaders headers;
+
+        /**
+         * Gets the stream of the image data, or null if the response is {@link #isNotModified()}.
+         */
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * Gets the caching headers of the response, or null if it doesn't have any.
+         */
+        public CacheHeaders getCacheHeaders() {
+            return headers;
+        }
+
+        public boolean isNotModified() {
+            return body == null;
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(body);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.afollestad.aimage.net;
+
+import android.os.Build;
+
+import com.afollestad.aimage.cache.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * The default {@link Fetcher}, built on HttpURLConnection. Requests time out instead of blocking a network thread
+ * forever when a server stalls, connections are kept alive and reused across requests to the same host, and cached
+ * images are revalidated with If-None-Match/If-Modified-Since so unchanged images aren't downloaded again.
+ *
+ * @author Aidan Follestad
+ */
+public class HttpFetcher implements Fetcher {
+
+    public HttpFetcher() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) {
+            // Reusing a connection whose response wasn't fully read corrupts the next response before Froyo
+            System.setProperty("http.keepAlive", "false");
+        }
+    }
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT = 20 * 1000;
+
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    /**
+     * Sets how long to wait for a connection to be established, in milliseconds. Defaults to
+     * {@link #DEFAULT_CONNECT_TIMEOUT}.
+     */
+    public HttpFetcher setConnectTimeout(int millis) {
+        this.connectTimeout = millis;
+        return this;
+    }
+
+    /**
+     * Sets how long to wait for data once connected (the time between two reads, not the whole download), in
+     * milliseconds. Defaults to {@link #DEFAULT_READ_TIMEOUT}.
+     */
+    public HttpFetcher setReadTimeout(int millis) {
+        this.readTimeout = millis;
+        return this;
+    }
+
+    @Override
+    public Response fetch(String url, CacheHeaders validators) throws IOException {
+        URLConnection conn = new URL(url).openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        if (!(conn instanceof HttpURLConnection)) {
+            // Other URL schemes only get the timeouts
+            return new Response(conn.getInputStream(), null);
+        }
+
+        HttpURLConnection http = (HttpURLConnection) conn;
+        // Images are cached by the ImageManager, and are already compressed so gzip only costs CPU time
+        http.setUseCaches(false);
+        http.setRequestProperty("Accept-Encoding", "identity");
+        if (validators != null) {
+            if (validators.getETag() != null)
+                http.setRequestProperty("If-None-Match", validators.getETag());
+            if (validators.getLastModified() != null)
+                http.setRequestProperty("If-Modified-Since", validators.getLastModified());
+        }
+
+        int status;
+        try {
+            status = http.getResponseCode();
+        } catch (IOException e) {
+            http.disconnect();
+            throw e;
+        }
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null) {
+            drainQuietly(http, false);
+            return Response.notModified(CacheHeaders.fromConnection(http, validators));
+        } else if (status < 200 || status >= 300) {
+            drainQuietly(http, true);
+            throw new HttpStatusException(url, status);
+        }
+        return new Response(http.getInputStream(), CacheHeaders.fromConnection(http, null));
+    }
+
+    /**
+     * Reads and closes the body of a response that isn't going to be used, so the connection can be reused.
+     */
+    private static void drainQuietly(HttpURLConnection http, boolean error) {
+        InputStream in = null;
+        try {
+            in = error ? http.getErrorStream() : http.getInputStream();
+            if (in != null)
+                IOUtils.drain(in);
+        } catch (IOException e) {
+            // The connection just won't be reused
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.afollestad.aimage.net;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link Fetcher} when the server answers with a status code that doesn't have an image in it.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public HttpStatusException(String url, int statusCode) {
+        super("HTTP " + statusCode + " for " + url);
+        this.statusCode = statusCode;
+    }
+
+    private final int statusCode;
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns true for 5xx statuses, which usually mean the server is having trouble rather than the image being gone.
+     */
+    public boolean isServerError() {
+        return statusCode >= 500;
+    }
+}
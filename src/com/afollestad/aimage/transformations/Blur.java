@@ -0,0 +1,88 @@
+package com.afollestad.aimage.transformations;
+
+import android.graphics.Bitmap;
+import com.afollestad.aimage.Transformation;
+
+/**
+ * Blurs an image, in plain Java so it works on every version of Android. Three passes of a box blur are made, which
+ * comes close to a gaussian blur; every pass takes the same time whatever the radius is.
+ * <p/>
+ * Blurring takes a copy of the image's pixels in memory, so large images are best downsampled first (by requesting
+ * them with a {@link com.afollestad.aimage.Dimension}).
+ *
+ * @author Aidan Follestad
+ */
+public class Blur implements Transformation {
+
+    /**
+     * @param radiusPx The radius of each box blur pass in pixels of the image.
+     */
+    public Blur(int radiusPx) {
+        if (radiusPx < 1)
+            throw new IllegalArgumentException("The blur radius must be at least 1.");
+        this.radius = radiusPx;
+    }
+
+    private static final int PASSES = 3;
+    private final int radius;
+
+    @Override
+    public String getId() {
+        return "blur:" + radius;
+    }
+
+    @Override
+    public Bitmap transform(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        int[] buffer = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int pass = 0; pass < PASSES; pass++) {
+            // Rows into the buffer, then the buffer's columns back into the pixels
+            blur(pixels, buffer, height, width, width, 1, radius);
+            blur(buffer, pixels, width, 1, height, width, radius);
+        }
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap result = Bitmap.createBitmap(width, height, config);
+        result.setPixels(pixels, 0, width, 0, 0, width, height);
+        return result;
+    }
+
+    /**
+     * Replaces every pixel with the average of the pixels within the radius on its line (a row or a column), clamping
+     * at the edges. A running sum is kept for each line, so every pixel costs the same whatever the radius is.
+     *
+     * @param lines      The number of lines.
+     * @param lineStride The distance between the first pixels of two lines in the array.
+     * @param length     The number of pixels on a line.
+     * @param step       The distance between two pixels on a line in the array.
+     */
+    private static void blur(int[] in, int[] out, int lines, int lineStride, int length, int step, int radius) {
+        int window = radius * 2 + 1;
+        for (int line = 0; line < lines; line++) {
+            int start = line * lineStride;
+            int a = 0, r = 0, g = 0, b = 0;
+            for (int i = -radius; i <= radius; i++) {
+                int pixel = in[start + clamp(i, length) * step];
+                a += pixel >>> 24;
+                r += (pixel >> 16) & 0xFF;
+                g += (pixel >> 8) & 0xFF;
+                b += pixel & 0xFF;
+            }
+            for (int i = 0; i < length; i++) {
+                out[start + i * step] = (a / window) << 24 | (r / window) << 16 | (g / window) << 8 | (b / window);
+                int added = in[start + clamp(i + radius + 1, length) * step];
+                int removed = in[start + clamp(i - radius, length) * step];
+                a += (added >>> 24) - (removed >>> 24);
+                r += ((added >> 16) & 0xFF) - ((removed >> 16) & 0xFF);
+                g += ((added >> 8) & 0xFF) - ((removed >> 8) & 0xFF);
+                b += (added & 0xFF) - (removed & 0xFF);
+            }
+        }
+    }
+
+    private static int clamp(int index, int length) {
+        return Math.max(0, Math.min(length - 1, index));
+    }
+}
@@ -0,0 +1,44 @@
+package com.afollestad.aimage.transformations;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import com.afollestad.aimage.Dimension;
+import com.afollestad.aimage.Transformation;
+
+/**
+ * Scales an image to cover a {@link Dimension}, and crops off whatever sticks out on either side; like the CENTER_CROP
+ * scale type of an ImageView, but done once before the image is cached instead of every time it's drawn.
+ *
+ * @author Aidan Follestad
+ */
+public class CenterCrop implements Transformation {
+
+    public CenterCrop(Dimension dimension) {
+        if (dimension.getWidth() <= 0 || dimension.getHeight() <= 0)
+            throw new IllegalArgumentException("The dimension to crop to must be larger than 0x0.");
+        this.width = dimension.getWidth();
+        this.height = dimension.getHeight();
+    }
+
+    private final int width;
+    private final int height;
+
+    @Override
+    public String getId() {
+        return "center-crop:" + width + "x" + height;
+    }
+
+    @Override
+    public Bitmap transform(Bitmap bitmap) {
+        if (bitmap.getWidth() == width && bitmap.getHeight() == height)
+            return bitmap;
+        float scale = Math.max((float) width / bitmap.getWidth(), (float) height / bitmap.getHeight());
+        // The part of the image that ends up in the result, in pixels of the image
+        int cropWidth = Math.min(bitmap.getWidth(), Math.round(width / scale));
+        int cropHeight = Math.min(bitmap.getHeight(), Math.round(height / scale));
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) width / cropWidth, (float) height / cropHeight);
+        return Bitmap.createBitmap(bitmap, (bitmap.getWidth() - cropWidth) / 2, (bitmap.getHeight() - cropHeight) / 2,
+                cropWidth, cropHeight, matrix, true);
+    }
+}
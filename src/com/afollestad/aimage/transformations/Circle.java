@@ -0,0 +1,39 @@
+package com.afollestad.aimage.transformations;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import com.afollestad.aimage.Transformation;
+
+/**
+ * Crops an image to the largest circle that fits in it, centered; e.g. for avatars. The result is a square with
+ * transparent corners.
+ *
+ * @author Aidan Follestad
+ */
+public class Circle implements Transformation {
+
+    @Override
+    public String getId() {
+        return "circle";
+    }
+
+    @Override
+    public Bitmap transform(Bitmap bitmap) {
+        int size = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        Bitmap result = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        BitmapShader shader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        Matrix matrix = new Matrix();
+        // Centers the longer side of the image on the circle
+        matrix.setTranslate(-(bitmap.getWidth() - size) / 2f, -(bitmap.getHeight() - size) / 2f);
+        shader.setLocalMatrix(matrix);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setShader(shader);
+        float radius = size / 2f;
+        new Canvas(result).drawCircle(radius, radius, radius, paint);
+        return result;
+    }
+}
@@ -0,0 +1,33 @@
+package com.afollestad.aimage.transformations;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import com.afollestad.aimage.Transformation;
+
+/**
+ * Removes the colors of an image.
+ *
+ * @author Aidan Follestad
+ */
+public class Grayscale implements Transformation {
+
+    @Override
+    public String getId() {
+        return "grayscale";
+    }
+
+    @Override
+    public Bitmap transform(Bitmap bitmap) {
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap result = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), config);
+        ColorMatrix matrix = new ColorMatrix();
+        matrix.setSaturation(0);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
+        new Canvas(result).drawBitmap(bitmap, 0, 0, paint);
+        return result;
+    }
+}
@@ -0,0 +1,44 @@
+package com.afollestad.aimage.transformations;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import com.afollestad.aimage.Transformation;
+
+/**
+ * Rounds the corners of an image, the corners are made transparent.
+ *
+ * @author Aidan Follestad
+ */
+public class RoundedCorners implements Transformation {
+
+    /**
+     * @param radiusPx The radius of the corners in pixels of the image.
+     */
+    public RoundedCorners(float radiusPx) {
+        if (radiusPx < 0)
+            throw new IllegalArgumentException("The corner radius cannot be negative.");
+        this.radius = radiusPx;
+    }
+
+    private final float radius;
+
+    @Override
+    public String getId() {
+        return "rounded-corners:" + radius;
+    }
+
+    @Override
+    public Bitmap transform(Bitmap bitmap) {
+        // Transparent corners need an alpha channel, whatever the image was decoded with
+        Bitmap result = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setShader(new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+        new Canvas(result).drawRoundRect(new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight()), radius, radius,
+                paint);
+        return result;
+    }
+}
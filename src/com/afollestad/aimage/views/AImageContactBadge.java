@@ -2,14 +2,19 @@ package com.afollestad.aimage.views;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.View;
 import android.widget.QuickContactBadge;
 
+import com.afollestad.aimage.CacheKey;
 import com.afollestad.aimage.Dimension;
 import com.afollestad.aimage.ImageListener;
 import com.afollestad.aimage.ImageManager;
-import com.afollestad.aimage.Utils;
+import com.afollestad.aimage.LoadHandle;
+import com.afollestad.aimage.Priority;
 
 public class AImageContactBadge extends QuickContactBadge {
 
@@ -18,6 +23,12 @@ public class AImageContactBadge extends QuickContactBadge {
     protected boolean invalidateOnLoad;
     private boolean fitView = true;
     protected String lastSource;
+    private LoadHandle loadHandle;
+    /**
+     * The Bitmap the view is showing, retained with the ImageManager so it isn't reused through the Bitmap pool.
+     */
+    private Bitmap shownBitmap;
+    private boolean reloadOnAttach;
 
 
     public AImageContactBadge(Context context) {
@@ -44,6 +55,57 @@ public class AImageContactBadge extends QuickContactBadge {
         loadFromSource();
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (reloadOnAttach) {
+            reloadOnAttach = false;
+            loadFromSource();
+        } else if (loadHandle != null) {
+            // Back on screen, load this view's image before images requested since it was last visible
+            loadHandle.setPriority(Priority.VISIBLE);
+        }
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility == View.VISIBLE && loadHandle != null)
+            loadHandle.setPriority(Priority.VISIBLE);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (loadHandle != null && !loadHandle.isDone()) {
+            // Don't keep downloading for a view that's gone; load again if it's attached again
+            cancelLoad();
+            reloadOnAttach = true;
+        }
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        super.setImageDrawable(drawable);
+        setShownBitmap(drawable instanceof BitmapDrawable ? ((BitmapDrawable) drawable).getBitmap() : null);
+    }
+
+    @Override
+    public void setImageResource(int resId) {
+        super.setImageResource(resId);
+        setShownBitmap(null);
+    }
+
+    private void setShownBitmap(Bitmap bitmap) {
+        if (bitmap == shownBitmap)
+            return;
+        if (aimage != null) {
+            aimage.releaseBitmap(shownBitmap);
+            aimage.retainBitmap(bitmap);
+        }
+        shownBitmap = bitmap;
+    }
+
 
     /**
      * Sets the ImageManager that is used to load images into the view.
@@ -52,6 +114,11 @@ public class AImageContactBadge extends QuickContactBadge {
         if(manager == null) {
             throw new IllegalArgumentException("The ImageManager cannot be null.");
         }
+        if (manager != aimage) {
+            if (aimage != null)
+                aimage.releaseBitmap(shownBitmap);
+            manager.retainBitmap(shownBitmap);
+        }
         this.aimage = manager;
         return this;
     }
@@ -60,6 +127,10 @@ public class AImageContactBadge extends QuickContactBadge {
      * Sets the source of the image to load into the view.
      */
     public AImageContactBadge setSource(String source) {
+        if (this.source != null && !this.source.equals(source)) {
+            // The view was recycled for another image, the previous load is no longer needed
+            cancelLoad();
+        }
         this.source = source;
         return this;
     }
@@ -83,6 +154,16 @@ public class AImageContactBadge extends QuickContactBadge {
         loadFromSource();
     }
 
+    /**
+     * Cancels the image load that's currently in progress for this view, if any.
+     */
+    public void cancelLoad() {
+        if (loadHandle != null) {
+            loadHandle.cancel();
+            loadHandle = null;
+        }
+    }
+
     private void loadFromSource() {
         if (aimage == null) {
             return;
@@ -98,7 +179,17 @@ public class AImageContactBadge extends QuickContactBadge {
 
         lastSource = source;
         final Dimension dimen = this.fitView ? new Dimension(this) : null;
-        aimage.get(this.source, new ImageListener() {
+        Bitmap cached = aimage.getFromMemory(this.source, dimen);
+        if (cached != null) {
+            // Already in memory, set it right away instead of waiting for a callback a frame or two later
+            cancelLoad();
+            onImageLoaded(source, cached, dimen);
+            return;
+        }
+
+        // Cancelled only after the new request is made, so a reload of the same image attaches to the same load
+        LoadHandle previousHandle = loadHandle;
+        loadHandle = aimage.get(this.source, new ImageListener() {
             @Override
             public void onImageReceived(final String source, final Bitmap bitmap) {
                 if(lastSource != null && !lastSource.equals(source)) {
@@ -106,24 +197,24 @@ public class AImageContactBadge extends QuickContactBadge {
                         Log.i("AImageView", "View source changed since download started, not setting " + source + " to view.");
                     return;
                 }
-
-                // Post on the view's UI thread to be 100% sure we're on the right thread
-                AImageContactBadge.this.post(new Runnable() {
-                    @Override
-                    public void run() {
-                    	if(bitmap == null)
-                    		setImageToDefault();
-                    	else
-                    		setImageBitmap(bitmap);
-                        if (invalidateOnLoad) {
-                            requestLayout();
-                            invalidate();
-                        }
-                        if(aimage.isDebugEnabled())
-                            Log.i("AImageView", source + " set to view " + Utils.getKey(source, dimen));
-                    }
-                });
+                // The ImageManager delivers results on the main thread, so the view can be updated directly
+                onImageLoaded(source, bitmap, dimen);
             }
         }, dimen);
+        if (previousHandle != null)
+            previousHandle.cancel();
+    }
+
+    private void onImageLoaded(String source, Bitmap bitmap, Dimension dimen) {
+    	if(bitmap == null)
+    		setImageToDefault();
+    	else
+    		setImageBitmap(bitmap);
+        if (invalidateOnLoad) {
+            requestLayout();
+            invalidate();
+        }
+        if(aimage.isDebugEnabled())
+            Log.i("AImageView", source + " set to view " + new CacheKey(source, dimen));
     }
 }
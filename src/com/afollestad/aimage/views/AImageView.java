@@ -2,14 +2,24 @@ package com.afollestad.aimage.views;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
+import com.afollestad.aimage.CacheKey;
+import com.afollestad.aimage.DecodeConfig;
 import com.afollestad.aimage.Dimension;
 import com.afollestad.aimage.ImageListener;
 import com.afollestad.aimage.ImageManager;
-import com.afollestad.aimage.Utils;
+import com.afollestad.aimage.LoadHandle;
+import com.afollestad.aimage.Priority;
+import com.afollestad.aimage.Transformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class AImageView extends ImageView {
 
@@ -17,7 +27,15 @@ public class AImageView extends ImageView {
     private ImageManager aimage;
     protected boolean invalidateOnLoad;
     private boolean fitView = true;
+    private List<Transformation> transformations;
+    private DecodeConfig decodeConfig;
     protected String lastSource;
+    private LoadHandle loadHandle;
+    /**
+     * The Bitmap the view is showing, retained with the ImageManager so it isn't reused through the Bitmap pool.
+     */
+    private Bitmap shownBitmap;
+    private boolean reloadOnAttach;
     private View loadingView;
 
     public AImageView(Context context) {
@@ -44,6 +62,57 @@ public class AImageView extends ImageView {
         loadFromSource();
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (reloadOnAttach) {
+            reloadOnAttach = false;
+            loadFromSource();
+        } else if (loadHandle != null) {
+            // Back on screen, load this view's image before images requested since it was last visible
+            loadHandle.setPriority(Priority.VISIBLE);
+        }
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility == View.VISIBLE && loadHandle != null)
+            loadHandle.setPriority(Priority.VISIBLE);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (loadHandle != null && !loadHandle.isDone()) {
+            // Don't keep downloading for a view that's gone; load again if it's attached again
+            cancelLoad();
+            reloadOnAttach = true;
+        }
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        super.setImageDrawable(drawable);
+        setShownBitmap(drawable instanceof BitmapDrawable ? ((BitmapDrawable) drawable).getBitmap() : null);
+    }
+
+    @Override
+    public void setImageResource(int resId) {
+        super.setImageResource(resId);
+        setShownBitmap(null);
+    }
+
+    private void setShownBitmap(Bitmap bitmap) {
+        if (bitmap == shownBitmap)
+            return;
+        if (aimage != null) {
+            aimage.releaseBitmap(shownBitmap);
+            aimage.retainBitmap(bitmap);
+        }
+        shownBitmap = bitmap;
+    }
+
 
     /**
      * Sets the ImageManager that is used to load images into the view.
@@ -52,6 +121,11 @@ public class AImageView extends ImageView {
         if(manager == null) {
             throw new IllegalArgumentException("The ImageManager cannot be null.");
         }
+        if (manager != aimage) {
+            if (aimage != null)
+                aimage.releaseBitmap(shownBitmap);
+            manager.retainBitmap(shownBitmap);
+        }
         this.aimage = manager;
         return this;
     }
@@ -68,6 +142,10 @@ public class AImageView extends ImageView {
      * Sets the source of the image to load into the view.
      */
     public AImageView setSource(String source) {
+        if (this.source != null && !this.source.equals(source)) {
+            // The view was recycled for another image, the previous load is no longer needed
+            cancelLoad();
+        }
         this.source = source;
         return this;
     }
@@ -89,6 +167,27 @@ public class AImageView extends ImageView {
         return this;
     }
 
+    /**
+     * Sets transformations (e.g. {@link com.afollestad.aimage.transformations.Circle}) that are applied to images
+     * before they're cached and set to the view, so they aren't applied again every time the view is bound while
+     * scrolling. Pass nothing to remove them.
+     */
+    public AImageView setTransformations(Transformation... transformations) {
+        this.transformations = transformations.length > 0 ?
+                new ArrayList<Transformation>(Arrays.asList(transformations)) : null;
+        return this;
+    }
+
+    /**
+     * Sets the pixel format images are decoded with for this view, or null (the default) to use the ImageManager's.
+     * E.g. {@link DecodeConfig#ARGB_8888} for a view that shows photos with smooth gradients in an app that otherwise
+     * prefers RGB_565.
+     */
+    public AImageView setDecodeConfig(DecodeConfig decodeConfig) {
+        this.decodeConfig = decodeConfig;
+        return this;
+    }
+
     /**
      * Sets the view that will become visible when the view begins loading an image, and will be hidden when the 
      * view finishes loading an image. The imageview itself will also be hidden during loading if a loading view is set.
@@ -115,20 +214,40 @@ public class AImageView extends ImageView {
             throw new IllegalStateException("You cannot load the fallback image until you have set a ImageManager via setManager().");
         if(aimage.isDebugEnabled())
             Log.i("AImageView", "Loading fallback image for view...");
+        Dimension dimen = new Dimension(this);
+        Bitmap cached = aimage.getFromMemory(ImageManager.SOURCE_FALLBACK, dimen);
+        if (cached != null) {
+            onFallbackLoaded(cached);
+            return;
+        }
         aimage.get(ImageManager.SOURCE_FALLBACK, new ImageListener() {
             @Override
             public void onImageReceived(final String source, final Bitmap bitmap) {
-                setImageBitmap(bitmap);
-                if (invalidateOnLoad) {
-                    requestLayout();
-                    invalidate();
-                }
-                if(aimage.isDebugEnabled())
-                    Log.i("AImageView", "Fallback image set to view.");
+                onFallbackLoaded(bitmap);
             }
-        }, new Dimension(this));
+        }, dimen);
     }
 
+    private void onFallbackLoaded(Bitmap bitmap) {
+        setImageBitmap(bitmap);
+        if (invalidateOnLoad) {
+            requestLayout();
+            invalidate();
+        }
+        if(aimage.isDebugEnabled())
+            Log.i("AImageView", "Fallback image set to view.");
+    }
+
+
+    /**
+     * Cancels the image load that's currently in progress for this view, if any.
+     */
+    public void cancelLoad() {
+        if (loadHandle != null) {
+            loadHandle.cancel();
+            loadHandle = null;
+        }
+    }
 
     private void loadFromSource() {
         if (aimage == null) {
@@ -144,11 +263,21 @@ public class AImageView extends ImageView {
 
         lastSource = source;
         final Dimension dimen = this.fitView ? new Dimension(this) : null;
+        Bitmap cached = aimage.getFromMemory(this.source, dimen, transformations, decodeConfig);
+        if (cached != null) {
+            // Already in memory, set it right away instead of waiting for a callback a frame or two later
+            cancelLoad();
+            onImageLoaded(source, cached, dimen);
+            return;
+        }
+
+        // Cancelled only after the new request is made, so a reload of the same image attaches to the same load
+        LoadHandle previousHandle = loadHandle;
         if(loadingView != null) {
         	loadingView.setVisibility(View.VISIBLE);
         	this.setVisibility(View.GONE);
         }
-        aimage.get(this.source, new ImageListener() {
+        loadHandle = aimage.get(this.source, new ImageListener() {
             @Override
             public void onImageReceived(final String source, final Bitmap bitmap) {
                 if(lastSource != null && !lastSource.equals(source)) {
@@ -156,25 +285,25 @@ public class AImageView extends ImageView {
                         Log.i("AImageView", "View source changed since download started, not setting " + source + " to view.");
                     return;
                 }
-
-                // Post on the view's UI thread to be 100% sure we're on the right thread
-                AImageView.this.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        setImageBitmap(bitmap);
-                        if (invalidateOnLoad) {
-                            requestLayout();
-                            invalidate();
-                        }
-                        if(loadingView != null) {
-                        	loadingView.setVisibility(View.GONE);
-                        	AImageView.this.setVisibility(View.VISIBLE);
-                        }
-                        if(aimage.isDebugEnabled())
-                            Log.i("AImageView", source + " set to view " + Utils.getKey(source, dimen));
-                    }
-                });
+                // The ImageManager delivers results on the main thread, so the view can be updated directly
+                onImageLoaded(source, bitmap, dimen);
             }
-        }, dimen);
+        }, dimen, transformations, decodeConfig, Priority.VISIBLE);
+        if (previousHandle != null)
+            previousHandle.cancel();
+    }
+
+    private void onImageLoaded(String source, Bitmap bitmap, Dimension dimen) {
+        setImageBitmap(bitmap);
+        if (invalidateOnLoad) {
+            requestLayout();
+            invalidate();
+        }
+        if(loadingView != null) {
+        	loadingView.setVisibility(View.GONE);
+        	AImageView.this.setVisibility(View.VISIBLE);
+        }
+        if(aimage.isDebugEnabled())
+            Log.i("AImageView", source + " set to view " + new CacheKey(source, dimen));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package com.afollestad.aimage.views;
+
+import android.widget.AbsListView;
+
+import com.afollestad.aimage.Dimension;
+import com.afollestad.aimage.ImageManager;
+import com.afollestad.aimage.LoadHandle;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A scroll listener for a ListView or GridView that prefetches the images of items a few screens ahead of the
+ * visible ones, in the direction the list is being scrolled, using
+ * {@link ImageManager#prefetch(java.util.Collection, Dimension)}. When the scroll direction reverses, prefetches that
+ * are still pending are cancelled.
+ * <p/>
+ * The dimension should be the same one the item views load their images with (e.g. the size of the AImageView in
+ * the items), otherwise the prefetched images won't be used.
+ *
+ * @author Aidan Follestad
+ */
+public class PrefetchScrollListener implements AbsListView.OnScrollListener {
+
+    public PrefetchScrollListener(ImageManager manager, SourceProvider provider, Dimension dimension) {
+        if (manager == null) {
+            throw new IllegalArgumentException("The ImageManager cannot be null.");
+        }
+        this.manager = manager;
+        this.provider = provider;
+        this.dimension = dimension;
+    }
+
+    /**
+     * Maps positions in the list's adapter to the sources of their images.
+     */
+    public interface SourceProvider {
+
+        /**
+         * Gets the source of the image for an item, or null if the item doesn't have one.
+         */
+        public abstract String getSource(int position);
+    }
+
+    private final ImageManager manager;
+    private final SourceProvider provider;
+    private final Dimension dimension;
+    private AbsListView.OnScrollListener delegate;
+    private int screens = 2;
+    private boolean warmMemory;
+    private final LinkedList<LoadHandle> handles = new LinkedList<LoadHandle>();
+    private int lastFirstVisible = -1;
+    private boolean scrollingDown = true;
+    /**
+     * The range of positions that have already been prefetched in the current scroll direction.
+     */
+    private int prefetchedFrom = -1;
+    private int prefetchedTo = -1;
+
+    /**
+     * Sets how many screens worth of items ahead of the visible ones are prefetched. Defaults to 2.
+     */
+    public PrefetchScrollListener setScreens(int screens) {
+        this.screens = screens;
+        return this;
+    }
+
+    /**
+     * Sets whether or not prefetched images are decoded into the memory cache too, see
+     * {@link ImageManager#prefetch(java.util.Collection, Dimension, boolean)}. Off by default.
+     */
+    public PrefetchScrollListener setWarmMemory(boolean warmMemory) {
+        this.warmMemory = warmMemory;
+        return this;
+    }
+
+    /**
+     * Sets a scroll listener that will receive every scroll event too, since a list can only have one scroll listener.
+     */
+    public PrefetchScrollListener setDelegate(AbsListView.OnScrollListener delegate) {
+        this.delegate = delegate;
+        return this;
+    }
+
+    /**
+     * Cancels every prefetch that's still pending.
+     */
+    public void cancel() {
+        for (LoadHandle handle : handles)
+            handle.cancel();
+        handles.clear();
+        prefetchedFrom = -1;
+        prefetchedTo = -1;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (delegate != null)
+            delegate.onScrollStateChanged(view, scrollState);
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (delegate != null)
+            delegate.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        if (visibleItemCount <= 0 || totalItemCount <= 0)
+            return;
+
+        if (lastFirstVisible != -1 && firstVisibleItem != lastFirstVisible) {
+            boolean down = firstVisibleItem > lastFirstVisible;
+            if (down != scrollingDown) {
+                // The images ahead in the old direction aren't needed anymore
+                scrollingDown = down;
+                cancel();
+            }
+        }
+        lastFirstVisible = firstVisibleItem;
+
+        int window = visibleItemCount * screens;
+        int from, to;
+        if (scrollingDown) {
+            from = firstVisibleItem + visibleItemCount;
+            to = Math.min(totalItemCount, from + window);
+        } else {
+            to = firstVisibleItem;
+            from = Math.max(0, to - window);
+        }
+        prefetch(from, to);
+    }
+
+    private void prefetch(int from, int to) {
+        List<String> sources = new ArrayList<String>();
+        for (int position = from; position < to; position++) {
+            if (position >= prefetchedFrom && position < prefetchedTo)
+                continue;
+            String source = provider.getSource(position);
+            if (source != null)
+                sources.add(source);
+        }
+        prefetchedFrom = from;
+        prefetchedTo = to;
+        if (sources.isEmpty())
+            return;
+
+        for (Iterator<LoadHandle> iterator = handles.iterator(); iterator.hasNext(); ) {
+            LoadHandle handle = iterator.next();
+            if (handle.isDone() || handle.isCancelled())
+                iterator.remove();
+        }
+        handles.addAll(manager.prefetch(sources, dimension, warmMemory));
+    }
+}
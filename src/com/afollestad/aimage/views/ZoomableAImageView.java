@@ -0,0 +1,334 @@
+package com.afollestad.aimage.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import com.afollestad.aimage.Dimension;
+import com.afollestad.aimage.ImageListener;
+import com.afollestad.aimage.ImageManager;
+import com.afollestad.aimage.ImageSizeListener;
+import com.afollestad.aimage.LoadHandle;
+import com.afollestad.aimage.Priority;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A version of {@link AImageView} that can be zoomed with a pinch or a double tap, and panned by dragging. The image
+ * is shown downsampled to fit the view like in the AImageView; once it's zoomed in past that resolution, only the
+ * tiles of the original image that are visible are decoded (see {@link ImageManager#getTile(String, int, int, int)}),
+ * at the resolution they're shown at. So images far larger than the heap, like panoramas or scanned documents, can be
+ * zoomed all the way in with bounded memory.
+ */
+public class ZoomableAImageView extends AImageView {
+
+    public ZoomableAImageView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public ZoomableAImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    public ZoomableAImageView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init(context);
+    }
+
+    private ScaleGestureDetector scaleDetector;
+    private GestureDetector gestureDetector;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Map<Long, Tile> tiles = new HashMap<Long, Tile>();
+    private Bitmap preview;
+    private Dimension imageSize;
+    private String sizeSource;
+    private float maxScale = 2f;
+    private float scale;
+    private float offsetX;
+    private float offsetY;
+
+    private void init(Context context) {
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomTo(scale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                offsetX -= distanceX;
+                offsetY -= distanceY;
+                onTransformChanged();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                // Zooms in a step at a time, and back out once it's fully zoomed in
+                float target = scale >= getMaxScale() ? getMinScale() : scale * 2;
+                zoomTo(target, e.getX(), e.getY());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Sets how far the image can be zoomed in, as the number of screen pixels per pixel of the original image. Defaults
+     * to 2.
+     */
+    public ZoomableAImageView setMaxScale(float maxScale) {
+        if (maxScale <= 0)
+            throw new IllegalArgumentException("The maximum scale must be greater than 0.");
+        this.maxScale = maxScale;
+        onTransformChanged();
+        return this;
+    }
+
+    @Override
+    public AImageView setSource(String source) {
+        String previous = getSource();
+        if (previous != null && !previous.equals(source))
+            reset();
+        return super.setSource(source);
+    }
+
+    @Override
+    public void setImageBitmap(Bitmap bitmap) {
+        preview = bitmap;
+        super.setImageBitmap(bitmap);
+        if (imageSize != null)
+            onTransformChanged();
+        else if (bitmap != null) {
+            // Only loaded once the preview is in, so the original it was loaded from is already in the disk cache
+            // and the region decoder doesn't download it a second time
+            loadImageSize();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (imageSize != null)
+            fit();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        updateTiles();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // Tiles are loaded again once the view is attached again
+        clearTiles();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (imageSize == null)
+            return super.onTouchEvent(event);
+        scaleDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (imageSize == null || preview == null) {
+            super.onDraw(canvas);
+            return;
+        }
+        canvas.drawBitmap(preview, null, new RectF(offsetX, offsetY, offsetX + imageSize.getWidth() * scale,
+                offsetY + imageSize.getHeight() * scale), paint);
+        for (Tile tile : tiles.values()) {
+            if (tile.bitmap == null)
+                continue;
+            float span = ImageManager.TILE_SIZE * tile.level * scale;
+            float left = offsetX + tile.column * span;
+            float top = offsetY + tile.row * span;
+            canvas.drawBitmap(tile.bitmap, null, new RectF(left, top,
+                    left + tile.bitmap.getWidth() * tile.level * scale,
+                    top + tile.bitmap.getHeight() * tile.level * scale), paint);
+        }
+    }
+
+    private void loadImageSize() {
+        final ImageManager manager = getImageManager();
+        final String source = getSource();
+        if (manager == null || source == null || source.equals(sizeSource))
+            return;
+        sizeSource = source;
+        manager.getImageSize(source, new ImageSizeListener() {
+            @Override
+            public void onImageSizeReceived(String source, Dimension size) {
+                if (!source.equals(getSource()) || size == null)
+                    return;
+                imageSize = size;
+                fit();
+            }
+        });
+    }
+
+    private void reset() {
+        clearTiles();
+        imageSize = null;
+        sizeSource = null;
+        preview = null;
+    }
+
+    private float getMinScale() {
+        if (imageSize == null || getWidth() == 0 || getHeight() == 0)
+            return 1f;
+        return Math.min((float) getWidth() / imageSize.getWidth(), (float) getHeight() / imageSize.getHeight());
+    }
+
+    private float getMaxScale() {
+        return Math.max(getMinScale(), maxScale);
+    }
+
+    /**
+     * Zooms out so the whole image fits the view, centered.
+     */
+    private void fit() {
+        scale = getMinScale();
+        offsetX = (getWidth() - imageSize.getWidth() * scale) / 2;
+        offsetY = (getHeight() - imageSize.getHeight() * scale) / 2;
+        onTransformChanged();
+    }
+
+    /**
+     * Zooms to a scale, keeping the point of the image under the focus where it is.
+     */
+    private void zoomTo(float target, float focusX, float focusY) {
+        if (imageSize == null)
+            return;
+        target = Math.max(getMinScale(), Math.min(getMaxScale(), target));
+        offsetX = focusX - (focusX - offsetX) * target / scale;
+        offsetY = focusY - (focusY - offsetY) * target / scale;
+        scale = target;
+        onTransformChanged();
+    }
+
+    private void onTransformChanged() {
+        if (imageSize == null)
+            return;
+        scale = Math.max(getMinScale(), Math.min(getMaxScale(), scale));
+        offsetX = clampOffset(offsetX, getWidth(), imageSize.getWidth() * scale);
+        offsetY = clampOffset(offsetY, getHeight(), imageSize.getHeight() * scale);
+        updateTiles();
+        invalidate();
+    }
+
+    /**
+     * Keeps the image from being panned away from the edges of the view, and centers it where it's smaller than the
+     * view.
+     */
+    private static float clampOffset(float offset, int viewSize, float imageSize) {
+        if (imageSize <= viewSize)
+            return (viewSize - imageSize) / 2;
+        return Math.max(viewSize - imageSize, Math.min(0, offset));
+    }
+
+    /**
+     * Requests the tiles that are visible at the current scale, and cancels or drops the ones that aren't anymore.
+     * No tiles are needed while the preview's resolution is enough for the scale.
+     */
+    private void updateTiles() {
+        ImageManager manager = getImageManager();
+        String source = getSource();
+        if (manager == null || source == null || imageSize == null || preview == null) {
+            clearTiles();
+            return;
+        }
+        if ((float) preview.getWidth() / imageSize.getWidth() >= scale) {
+            clearTiles();
+            return;
+        }
+
+        // The level is the largest power of two the tiles can be downsampled by and still have enough resolution
+        int level = Integer.highestOneBit(Math.max(1, (int) (1 / scale)));
+        int span = ImageManager.TILE_SIZE * level;
+        int firstColumn = Math.max(0, (int) (-offsetX / scale) / span);
+        int firstRow = Math.max(0, (int) (-offsetY / scale) / span);
+        int lastColumn = Math.min((imageSize.getWidth() - 1) / span, (int) ((getWidth() - offsetX) / scale) / span);
+        int lastRow = Math.min((imageSize.getHeight() - 1) / span, (int) ((getHeight() - offsetY) / scale) / span);
+
+        Iterator<Tile> iterator = tiles.values().iterator();
+        while (iterator.hasNext()) {
+            Tile tile = iterator.next();
+            if (tile.level != level || tile.column < firstColumn || tile.column > lastColumn ||
+                    tile.row < firstRow || tile.row > lastRow) {
+                tile.cancel();
+                iterator.remove();
+            }
+        }
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                long key = getTileKey(level, column, row);
+                if (!tiles.containsKey(key)) {
+                    Tile tile = new Tile(level, column, row);
+                    tiles.put(key, tile);
+                    tile.load(manager, source);
+                }
+            }
+        }
+    }
+
+    private static long getTileKey(int level, int column, int row) {
+        return ((long) level << 48) | ((long) column << 24) | row;
+    }
+
+    private void clearTiles() {
+        for (Tile tile : tiles.values())
+            tile.cancel();
+        tiles.clear();
+    }
+
+    private class Tile implements ImageListener {
+
+        public Tile(int level, int column, int row) {
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+
+        private final int level;
+        private final int column;
+        private final int row;
+        private LoadHandle handle;
+        private Bitmap bitmap;
+
+        public void load(ImageManager manager, String source) {
+            handle = manager.getTile(source, level, column, row, this, Priority.VISIBLE);
+        }
+
+        public void cancel() {
+            if (handle != null)
+                handle.cancel();
+        }
+
+        @Override
+        public void onImageReceived(String source, Bitmap bitmap) {
+            this.bitmap = bitmap;
+            invalidate();
+        }
+    }
+}
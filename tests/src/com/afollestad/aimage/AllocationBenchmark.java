@@ -0,0 +1,97 @@
+package com.afollestad.aimage;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.afollestad.aimage.cache.BitmapPool;
+import com.afollestad.aimage.cache.ByteArrayPool;
+import com.afollestad.aimage.cache.IOUtils;
+import com.afollestad.aimage.cache.PoolingByteArrayOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Counts the bytes allocated by 1000 loads of the same size of image, with and without pooling. A load reads the
+ * encoded image from a stream, decodes it, and lets go of the Bitmap the way the memory cache does when it evicts one;
+ * with pooling, the read buffers come from a {@link ByteArrayPool} and the Bitmap goes back to a {@link BitmapPool}
+ * for the next decode. The results are logged under the "AllocationBenchmark" tag.
+ * <p/>
+ * The allocation counters are only kept by Dalvik; on ART they stay at 0 and nothing is asserted.
+ *
+ * @author Aidan Follestad
+ */
+public class AllocationBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "AllocationBenchmark";
+    private static final int LOADS = 1000;
+    private static final int WARM_UP_LOADS = 20;
+    private static final int SIZE = 256;
+
+    private byte[] encoded;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.rgb(40, 120, 200));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out));
+        bitmap.recycle();
+        encoded = out.toByteArray();
+    }
+
+    public void testPoolingAllocatesLess() throws IOException {
+        long unpooled = countAllocatedBytes(null, null);
+        BitmapPool bitmapPool = new BitmapPool(4 * SIZE * SIZE * 4);
+        long pooled = countAllocatedBytes(bitmapPool, new ByteArrayPool(ByteArrayPool.DEFAULT_SIZE_LIMIT));
+        Log.i(TAG, "Bytes allocated per " + LOADS + " loads: " + unpooled + " without pooling, " + pooled +
+                " with pooling (" + bitmapPool.getHitCount() + " Bitmaps reused)");
+        if (unpooled == 0) {
+            Log.i(TAG, "The allocation counters aren't supported by this runtime");
+            return;
+        }
+        // Without pooling, every load allocates the pixels of a new Bitmap
+        assertTrue(unpooled >= (long) LOADS * SIZE * SIZE * 4);
+        assertTrue(bitmapPool.getHitCount() >= LOADS);
+        assertTrue("Pooling only saved " + (unpooled - pooled) + " of " + unpooled + " bytes", pooled * 10 < unpooled);
+    }
+
+    /**
+     * Runs the loads after a few warm-up loads (which fill the pools), returns the bytes the loads allocated.
+     */
+    private long countAllocatedBytes(BitmapPool bitmapPool, ByteArrayPool bufferPool) throws IOException {
+        for (int i = 0; i < WARM_UP_LOADS; i++)
+            load(bitmapPool, bufferPool);
+        System.gc();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < LOADS; i++)
+                load(bitmapPool, bufferPool);
+            return Debug.getThreadAllocSize();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private void load(BitmapPool bitmapPool, ByteArrayPool bufferPool) throws IOException {
+        ByteArrayOutputStream out = bufferPool != null ?
+                new PoolingByteArrayOutputStream(bufferPool, encoded.length) : new ByteArrayOutputStream();
+        byte[] data;
+        try {
+            IOUtils.copy(new ByteArrayInputStream(encoded), out);
+            data = out.toByteArray();
+        } finally {
+            out.close();
+        }
+        Bitmap bitmap = Utils.decodeByteArray(data, null, false, bitmapPool);
+        assertNotNull(bitmap);
+        if (bitmapPool != null)
+            bitmapPool.put(bitmap);
+    }
+}
@@ -0,0 +1,58 @@
+package com.afollestad.aimage;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests the rounding of the {@link BucketPolicy} implementations.
+ *
+ * @author Aidan Follestad
+ */
+public class BucketPolicyTest extends TestCase {
+
+    public void testPowerOfTwo() {
+        BucketPolicy policy = new BucketPolicy.PowerOfTwo();
+        assertEquals(new Dimension(512, 256), policy.bucket(new Dimension(317, 200)));
+        assertEquals(new Dimension(512, 512), policy.bucket(new Dimension(512, 257)));
+        assertEquals(new Dimension(1, 2), policy.bucket(new Dimension(1, 2)));
+        assertEquals(new Dimension(0, 0), policy.bucket(new Dimension(0, 0)));
+    }
+
+    public void testSteps() {
+        BucketPolicy policy = new BucketPolicy.Steps(64);
+        assertEquals(new Dimension(320, 192), policy.bucket(new Dimension(317, 129)));
+        assertEquals(new Dimension(320, 64), policy.bucket(new Dimension(320, 1)));
+        assertEquals(new Dimension(0, 0), policy.bucket(new Dimension(0, 0)));
+    }
+
+    public void testNearlyEqualSizesShareABucket() {
+        BucketPolicy policy = new BucketPolicy.Steps(64);
+        assertEquals(policy.bucket(new Dimension(317)), policy.bucket(new Dimension(320)));
+    }
+
+    public void testBucketsAreNeverSmaller() {
+        BucketPolicy[] policies = new BucketPolicy[]{
+                new BucketPolicy.PowerOfTwo(), new BucketPolicy.Steps(1), new BucketPolicy.Steps(48)
+        };
+        Random random = new Random(42);
+        for (BucketPolicy policy : policies) {
+            for (int i = 0; i < 1000; i++) {
+                Dimension dimension = new Dimension(1 + random.nextInt(4096), 1 + random.nextInt(4096));
+                Dimension bucket = policy.bucket(dimension);
+                assertTrue(dimension + " became " + bucket, bucket.getWidth() >= dimension.getWidth() &&
+                        bucket.getHeight() >= dimension.getHeight());
+                assertEquals(bucket, policy.bucket(bucket));
+            }
+        }
+    }
+
+    public void testInvalidStep() {
+        try {
+            new BucketPolicy.Steps(0);
+            fail("A step size of 0 was accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.afollestad.aimage;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the hashing and disk cache file names of {@link CacheKey}.
+ *
+ * @author Aidan Follestad
+ */
+public class CacheKeyTest extends TestCase {
+
+    private static final String SOURCE = "http://example.com/images/photo.jpg";
+    private static final String FILE_NAME = "fd4e8b74bb7b0ef63fe21ea0e9f79907";
+
+    public void testEqualKeysHaveEqualHashes() {
+        CacheKey a = new CacheKey(SOURCE, new Dimension(100, 200), "circle", DecodeConfig.PREFER_RGB_565);
+        CacheKey b = new CacheKey(SOURCE, new Dimension(100, 200), "circle", DecodeConfig.PREFER_RGB_565);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(a.toFileName(), b.toFileName());
+    }
+
+    public void testEveryPartChangesTheKey() {
+        CacheKey key = new CacheKey(SOURCE, new Dimension(100, 200), "circle", DecodeConfig.ARGB_8888);
+        CacheKey[] others = new CacheKey[]{
+                new CacheKey(SOURCE + "?", new Dimension(100, 200), "circle", DecodeConfig.ARGB_8888),
+                new CacheKey(SOURCE, new Dimension(200, 100), "circle", DecodeConfig.ARGB_8888),
+                new CacheKey(SOURCE, null, "circle", DecodeConfig.ARGB_8888),
+                new CacheKey(SOURCE, new Dimension(100, 200), "blur", DecodeConfig.ARGB_8888),
+                new CacheKey(SOURCE, new Dimension(100, 200), null, DecodeConfig.ARGB_8888),
+                new CacheKey(SOURCE, new Dimension(100, 200), "circle", DecodeConfig.PREFER_RGB_565),
+                new CacheKey(SOURCE, new Dimension(100, 200), "circle", null)
+        };
+        for (CacheKey other : others) {
+            assertFalse(other.toString(), key.equals(other));
+            assertFalse(other.toString(), key.toFileName().equals(other.toFileName()));
+        }
+    }
+
+    public void testSourceDoesNotRunIntoTransformation() {
+        CacheKey a = new CacheKey("ab", null, null);
+        CacheKey b = new CacheKey("a", null, "b");
+        assertFalse(a.equals(b));
+        assertFalse(a.toFileName().equals(b.toFileName()));
+    }
+
+    public void testFileNameIsFixedLengthHex() {
+        StringBuilder longSource = new StringBuilder("data:image/png;base64,");
+        for (int i = 0; i < 10000; i++)
+            longSource.append('A');
+        String[] sources = new String[]{"", "a", SOURCE, longSource.toString()};
+        for (String source : sources) {
+            String name = new CacheKey(source, new Dimension(64)).toFileName();
+            assertEquals(32, name.length());
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                assertTrue(name, (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+            }
+        }
+    }
+
+    public void testFileNameIsStable() {
+        // Existing disk caches are only found again if the names of their files never change
+        CacheKey key = new CacheKey(SOURCE, new Dimension(100, 200), "circle");
+        assertEquals(FILE_NAME, key.toFileName());
+        assertEquals(key.toFileName(), new CacheKey(SOURCE, new Dimension(100, 200), "circle", null).toFileName());
+    }
+
+    public void testOriginalKey() {
+        CacheKey original = new CacheKey(SOURCE, null);
+        assertSame(original, original.getOriginalKey());
+        CacheKey variant = new CacheKey(SOURCE, new Dimension(100), "circle", DecodeConfig.PREFER_RGB_565);
+        assertEquals(original, variant.getOriginalKey());
+        assertEquals(original.toFileName(), variant.getOriginalKey().toFileName());
+    }
+
+    public void testNullSourceIsRejected() {
+        try {
+            new CacheKey(null, null);
+            fail("A key without a source was created");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.afollestad.aimage;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.InstrumentationTestCase;
+
+import com.afollestad.aimage.cache.BitmapPool;
+import com.afollestad.aimage.net.TestServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stresses the asynchronous load pipeline with hundreds of requests for a few overlapping images at once: every image
+ * must be downloaded once, every request must get it, and the executors must not start more threads than they're
+ * configured with. The memory cache, the Bitmap pool and the decode budget are made small enough that they're full
+ * during the run, and must stay within their limits.
+ *
+ * @author Aidan Follestad
+ */
+public class ConcurrencyTest extends InstrumentationTestCase {
+
+    private static final int IMAGES = 10;
+    private static final int REQUESTS = 300;
+    private static final int SIZE = 64;
+    /**
+     * The bytes of one decoded image, SIZE x SIZE in ARGB_8888.
+     */
+    private static final int IMAGE_BYTES = SIZE * SIZE * 4;
+
+    private TestServer server;
+    private ImageManager manager;
+    private File cacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Bitmap bitmap = Bitmap.createBitmap(SIZE * 2, SIZE * 2, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.BLUE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out));
+        bitmap.recycle();
+        final byte[] encoded = out.toByteArray();
+
+        server = new TestServer(new TestServer.Dispatcher() {
+            @Override
+            public TestServer.Reply dispatch(TestServer.Request request) {
+                // Slow enough that all the requests for an image are made while it's still downloading
+                return new TestServer.Reply(200).setBody(encoded).setDelay(200);
+            }
+        });
+        cacheDir = new File(getInstrumentation().getTargetContext().getCacheDir(), "concurrency");
+        deleteRecursively(cacheDir);
+        manager = new ImageManager(getInstrumentation().getTargetContext())
+                .setCacheDirectory(cacheDir)
+                .setMemoryCacheSize(4 * IMAGE_BYTES)
+                .setBitmapPoolSize(2 * IMAGE_BYTES)
+                .setDecodeBudget(2 * IMAGE_BYTES);
+        getInstrumentation().waitForIdleSync();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        manager.release();
+        server.close();
+        deleteRecursively(cacheDir);
+        super.tearDown();
+    }
+
+    public void testOverlappingRequestsAreFetchedOnce() throws InterruptedException {
+        int threadsBefore = countThreads();
+        final CountDownLatch received = new CountDownLatch(REQUESTS);
+        MemorySampler sampler = new MemorySampler();
+        sampler.start();
+        final Map<String, Set<Bitmap>> bitmaps = new HashMap<String, Set<Bitmap>>();
+        final int[] failures = new int[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < REQUESTS; i++) {
+                    manager.get(server.getUrl("/image-" + (i % IMAGES)), new ImageListener() {
+                        @Override
+                        public void onImageReceived(String source, Bitmap bitmap) {
+                            // Called on the main thread, one at a time
+                            if (bitmap == null) {
+                                failures[0]++;
+                            } else {
+                                Set<Bitmap> shown = bitmaps.get(source);
+                                if (shown == null) {
+                                    shown = new HashSet<Bitmap>();
+                                    bitmaps.put(source, shown);
+                                }
+                                shown.add(bitmap);
+                            }
+                            received.countDown();
+                        }
+                    }, new Dimension(SIZE));
+                }
+            }
+        });
+        int threadsDuring = countThreads();
+        assertTrue("Not every request was answered", received.await(30, TimeUnit.SECONDS));
+        sampler.interrupt();
+        sampler.join();
+
+        // The latch makes everything the listeners did visible here
+        assertEquals(0, failures[0]);
+        assertEquals(IMAGES, bitmaps.size());
+        for (Set<Bitmap> shown : bitmaps.values())
+            assertEquals("Requests for the same image got different Bitmaps", 1, shown.size());
+        assertEquals("Images were downloaded more than once", IMAGES, server.getRequestCount());
+        assertEquals(REQUESTS - IMAGES, manager.getDedupedRequestCount());
+        int maxThreads = ImageManager.ASYNC_THREAD_COUNT + ImageManager.DISK_THREAD_COUNT;
+        assertTrue((threadsDuring - threadsBefore) + " threads were started for " + REQUESTS + " requests",
+                threadsDuring - threadsBefore <= maxThreads);
+
+        assertNull(sampler.violation, sampler.violation);
+        assertTrue("The memory cache was never full, so its limit wasn't tested",
+                sampler.largestUsage >= 3 * IMAGE_BYTES);
+        assertTrue(manager.getMemoryCacheUsage() <= manager.getMemoryCacheSize());
+        assertEquals(0, manager.getDecodeBudget().getUsedBytes());
+    }
+
+    /**
+     * Checks the memory limits every millisecond until it's interrupted, and remembers the first one that was broken.
+     */
+    private class MemorySampler extends Thread {
+
+        public volatile String violation;
+        public volatile int largestUsage;
+
+        @Override
+        public void run() {
+            while (!isInterrupted() && violation == null) {
+                // A decode thread that just put an image in the memory cache evicts the least recently used ones right
+                // after, outside of the cache's lock; so each one may be an image over the limit for a moment
+                int usage = manager.getMemoryCacheUsage();
+                largestUsage = Math.max(largestUsage, usage);
+                if (usage > manager.getMemoryCacheSize() + ImageManager.DISK_THREAD_COUNT * IMAGE_BYTES)
+                    violation = "The memory cache held " + usage + " bytes";
+                BitmapPool pool = manager.getBitmapPool();
+                if (pool.getSize() > pool.getMaxSize())
+                    violation = "The Bitmap pool held " + pool.getSize() + " bytes";
+                DecodeBudget budget = manager.getDecodeBudget();
+                if (budget.getUsedBytes() > budget.getMaxBytes())
+                    violation = budget.getUsedBytes() + " bytes were being decoded at once";
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the live threads, apart from the ones of the test server (one per connection).
+     */
+    private static int countThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && !thread.getName().startsWith("TestServer"))
+                count++;
+        }
+        return count;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteRecursively(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,110 @@
+package com.afollestad.aimage;
+
+import android.graphics.Bitmap;
+import junit.framework.TestCase;
+
+/**
+ * Tests the reservations of {@link DecodeBudget}.
+ *
+ * @author Aidan Follestad
+ */
+public class DecodeBudgetTest extends TestCase {
+
+    private static final long TIMEOUT = 5000;
+
+    public void testReservationsAreCounted() throws InterruptedException {
+        DecodeBudget budget = new DecodeBudget(100);
+        budget.acquire(30);
+        budget.acquire(70);
+        assertEquals(100, budget.getUsedBytes());
+        budget.release(30);
+        budget.release(70);
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    public void testOversizedDecodeRunsAlone() throws InterruptedException {
+        DecodeBudget budget = new DecodeBudget(100);
+        budget.acquire(1000);
+        assertEquals(1000, budget.getUsedBytes());
+        budget.release(1000);
+    }
+
+    public void testWaitsForRoom() throws InterruptedException {
+        final DecodeBudget budget = new DecodeBudget(100);
+        budget.acquire(80);
+        Acquirer waiting = new Acquirer(budget, 40);
+        waiting.start();
+        waiting.join(200);
+        assertTrue("The reservation didn't wait", waiting.isAlive());
+        assertEquals(80, budget.getUsedBytes());
+
+        budget.release(80);
+        waiting.join(TIMEOUT);
+        assertFalse("The reservation didn't go through after a release", waiting.isAlive());
+        assertEquals(40, budget.getUsedBytes());
+    }
+
+    public void testRaisingTheLimitWakesWaiters() throws InterruptedException {
+        DecodeBudget budget = new DecodeBudget(100);
+        budget.acquire(80);
+        Acquirer waiting = new Acquirer(budget, 40);
+        waiting.start();
+        waiting.join(200);
+        assertTrue(waiting.isAlive());
+
+        budget.setMaxBytes(200);
+        waiting.join(TIMEOUT);
+        assertFalse(waiting.isAlive());
+        assertEquals(120, budget.getUsedBytes());
+    }
+
+    public void testInterruptedWaitReservesNothing() throws InterruptedException {
+        DecodeBudget budget = new DecodeBudget(100);
+        budget.acquire(80);
+        Acquirer waiting = new Acquirer(budget, 40);
+        waiting.start();
+        waiting.join(200);
+        waiting.interrupt();
+        waiting.join(TIMEOUT);
+        assertTrue(waiting.interrupted);
+        assertEquals(80, budget.getUsedBytes());
+    }
+
+    public void testInvalidLimit() {
+        try {
+            new DecodeBudget(0);
+            fail("A budget of 0 bytes was accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testByteCount() {
+        assertEquals(100 * 50 * 4, DecodeBudget.getByteCount(100, 50, Bitmap.Config.ARGB_8888));
+        assertEquals(100 * 50 * 2, DecodeBudget.getByteCount(100, 50, Bitmap.Config.RGB_565));
+        assertEquals(100 * 50, DecodeBudget.getByteCount(100, 50, Bitmap.Config.ALPHA_8));
+        // Large images don't overflow
+        assertEquals(4L * 50000 * 50000, DecodeBudget.getByteCount(50000, 50000, Bitmap.Config.ARGB_8888));
+    }
+
+    private static class Acquirer extends Thread {
+
+        public Acquirer(DecodeBudget budget, long bytes) {
+            this.budget = budget;
+            this.bytes = bytes;
+        }
+
+        private final DecodeBudget budget;
+        private final long bytes;
+        public volatile boolean interrupted;
+
+        @Override
+        public void run() {
+            try {
+                budget.acquire(bytes);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+}
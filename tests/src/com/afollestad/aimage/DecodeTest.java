@@ -0,0 +1,211 @@
+package com.afollestad.aimage;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tests the decode stage of {@link Utils}: bounds, power-of-two sample sizes and exact scaling, and that a sized decode
+ * only allocates the pixels of the downsampled image. The fixtures are large images that are encoded when the test
+ * starts, so no binary files have to be checked in.
+ *
+ * @author Aidan Follestad
+ */
+public class DecodeTest extends AndroidTestCase {
+
+    private static final int FIXTURE_WIDTH = 2048;
+    private static final int FIXTURE_HEIGHT = 1536;
+
+    private static byte[] jpeg;
+    private static byte[] png;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        if (jpeg == null) {
+            jpeg = encode(FIXTURE_WIDTH, FIXTURE_HEIGHT, Color.rgb(200, 120, 40), Bitmap.CompressFormat.JPEG);
+            png = encode(FIXTURE_WIDTH / 2, FIXTURE_HEIGHT / 2, Color.TRANSPARENT, Bitmap.CompressFormat.PNG);
+        }
+    }
+
+    private static byte[] encode(int width, int height, int color, Bitmap.CompressFormat format) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(bitmap.compress(format, 90, out));
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    public void testBounds() {
+        BitmapFactory.Options bounds = Utils.decodeBounds(jpeg);
+        assertEquals(FIXTURE_WIDTH, bounds.outWidth);
+        assertEquals(FIXTURE_HEIGHT, bounds.outHeight);
+    }
+
+    public void testSampleSize() {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.outWidth = 4000;
+        bounds.outHeight = 3000;
+        int[][] cases = new int[][]{{96, 96}, {250, 187}, {251, 188}, {1000, 10}, {4000, 3000}};
+        for (int[] size : cases) {
+            Dimension dimension = new Dimension(size[0], size[1]);
+            int sampleSize = Utils.calculateInSampleSize(bounds, dimension);
+            String message = dimension + " got " + sampleSize;
+            assertEquals(message, 0, sampleSize & (sampleSize - 1));
+            // The largest sample size that still covers the dimension
+            assertTrue(message, 4000 / sampleSize >= size[0] && 3000 / sampleSize >= size[1]);
+            assertFalse(message, 4000 / (sampleSize * 2) >= size[0] && 3000 / (sampleSize * 2) >= size[1]);
+        }
+        assertEquals(16, Utils.calculateInSampleSize(bounds, new Dimension(96)));
+        // Images smaller than the dimension aren't sampled at all
+        assertEquals(1, Utils.calculateInSampleSize(bounds, new Dimension(5000)));
+    }
+
+    public void testSampleSizeWithZeroSide() {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.outWidth = 4000;
+        bounds.outHeight = 3000;
+        // A wrap_content height doesn't constrain the sample size
+        assertEquals(32, Utils.calculateInSampleSize(bounds, new Dimension(100, 0)));
+        assertEquals(1, Utils.calculateInSampleSize(bounds, new Dimension(0, 0)));
+        // Unknown bounds never sample
+        assertEquals(1, Utils.calculateInSampleSize(new BitmapFactory.Options(), new Dimension(96)));
+    }
+
+    public void testUnsizedDecodeIsFullSize() {
+        Bitmap bitmap = Utils.decodeByteArray(jpeg, null);
+        assertSize(FIXTURE_WIDTH, FIXTURE_HEIGHT, bitmap);
+        bitmap.recycle();
+    }
+
+    public void testSizedDecodeIsDownsampled() {
+        // A thumbnail of a large photo is decoded at 1/16th of its size
+        Bitmap bitmap = Utils.decodeByteArray(jpeg, new Dimension(96));
+        assertSize(FIXTURE_WIDTH / 16, FIXTURE_HEIGHT / 16, bitmap);
+        bitmap.recycle();
+    }
+
+    public void testExactScale() {
+        Dimension dimension = new Dimension(100, 60);
+        Bitmap sampled = Utils.decodeByteArray(jpeg, dimension, false);
+        assertSize(FIXTURE_WIDTH / 16, FIXTURE_HEIGHT / 16, sampled);
+        sampled.recycle();
+
+        // Scaled down from the sampled 128x96 until it just covers the dimension, keeping the aspect ratio
+        Bitmap scaled = Utils.decodeByteArray(jpeg, dimension, true);
+        assertSize(100, 75, scaled);
+        scaled.recycle();
+    }
+
+    public void testExactScaleNeverScalesUp() {
+        Bitmap bitmap = Utils.decodeByteArray(png, new Dimension(FIXTURE_WIDTH * 2), true);
+        assertSize(FIXTURE_WIDTH / 2, FIXTURE_HEIGHT / 2, bitmap);
+        bitmap.recycle();
+    }
+
+    public void testPeakAllocation() {
+        // The only pixels allocated are the ones of the downsampled image, which is what the decode reserves
+        RecordingBudget budget = new RecordingBudget();
+        Bitmap bitmap = Utils.decodeByteArray(jpeg, new Dimension(96), false, null, budget, null);
+        assertEquals(Utils.getByteCount(bitmap), budget.largest);
+        assertEquals(4L * (FIXTURE_WIDTH / 16) * (FIXTURE_HEIGHT / 16), budget.largest);
+        assertEquals(0, budget.getUsedBytes());
+        bitmap.recycle();
+    }
+
+    public void testPeakAllocationWithExactScale() {
+        // The scaled copy is drawn while the sampled Bitmap is still alive, so the decode reserves both
+        RecordingBudget budget = new RecordingBudget();
+        Bitmap bitmap = Utils.decodeByteArray(jpeg, new Dimension(100, 60), true, null, budget, null);
+        assertSize(100, 75, bitmap);
+        assertEquals(4L * (FIXTURE_WIDTH / 16) * (FIXTURE_HEIGHT / 16) + 4L * 100 * 75, budget.largest);
+        assertEquals(0, budget.getUsedBytes());
+        bitmap.recycle();
+    }
+
+    public void testPreferRgb565() {
+        Bitmap opaque = Utils.decodeByteArray(jpeg, new Dimension(96), false, null, null,
+                DecodeConfig.PREFER_RGB_565);
+        assertEquals(Bitmap.Config.RGB_565, opaque.getConfig());
+        opaque.recycle();
+
+        Bitmap transparent = Utils.decodeByteArray(png, new Dimension(96), false, null, null,
+                DecodeConfig.PREFER_RGB_565);
+        assertEquals(Bitmap.Config.ARGB_8888, transparent.getConfig());
+        assertTrue(transparent.hasAlpha());
+        transparent.recycle();
+    }
+
+    public void testDecodeFile() throws IOException {
+        File file = writeFixture();
+        try {
+            Bitmap bitmap = Utils.decodeFile(file.getAbsolutePath(), new Dimension(96), false);
+            assertSize(FIXTURE_WIDTH / 16, FIXTURE_HEIGHT / 16, bitmap);
+            bitmap.recycle();
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testDecodeStream() throws IOException {
+        File file = writeFixture();
+        InputStream input = new BufferedInputStream(new FileInputStream(file), Utils.STREAM_MARK_LIMIT);
+        try {
+            Bitmap bitmap = Utils.decodeStream(input, new Dimension(96), false);
+            assertSize(FIXTURE_WIDTH / 16, FIXTURE_HEIGHT / 16, bitmap);
+            bitmap.recycle();
+        } finally {
+            input.close();
+            file.delete();
+        }
+    }
+
+    public void testInvalidData() {
+        byte[] garbage = new byte[1024];
+        assertNull(Utils.decodeByteArray(garbage, new Dimension(96)));
+    }
+
+    private File writeFixture() throws IOException {
+        File file = File.createTempFile("fixture", ".jpg", getContext().getCacheDir());
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(jpeg);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void assertSize(int width, int height, Bitmap bitmap) {
+        assertNotNull(bitmap);
+        assertEquals(width + "x" + height, bitmap.getWidth() + "x" + bitmap.getHeight());
+    }
+
+    /**
+     * Remembers the largest reservation that was made.
+     */
+    private static class RecordingBudget extends DecodeBudget {
+
+        public RecordingBudget() {
+            super(Long.MAX_VALUE);
+        }
+
+        public long largest;
+
+        @Override
+        public synchronized void acquire(long bytes) throws InterruptedException {
+            largest = Math.max(largest, bytes);
+            super.acquire(bytes);
+        }
+    }
+}
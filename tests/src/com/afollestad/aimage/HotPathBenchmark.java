@@ -0,0 +1,326 @@
+package com.afollestad.aimage;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.afollestad.aimage.cache.DiskCache;
+import com.afollestad.aimage.cache.IOUtils;
+import com.afollestad.aimage.metrics.Histogram;
+import com.afollestad.aimage.net.TestServer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Benchmarks the hot paths of a load: key generation, stream copies, memory cache lookups under contention, disk
+ * cache reads and writes, and a whole {@link ImageManager#get(String, Dimension)} against a local server. Every
+ * result is logged under the "HotPathBenchmark" tag, and written as a row of {@link #RESULTS_FILE} (CSV) in the
+ * external files directory of the test app, so runs can be collected and compared:
+ * <pre>
+ * adb pull /sdcard/Android/data/com.afollestad.aimage.tests/files/hotpath-benchmark.csv
+ * </pre>
+ * Latencies are in microseconds, per-operation costs in nanoseconds. A result fails its benchmark if it's over the
+ * limit in the {@link #THRESHOLDS_FILE} asset; the limits are generous, they're there to catch regressions of an order
+ * of magnitude on any device, not to say how fast is fast enough.
+ *
+ * @author Aidan Follestad
+ */
+public class HotPathBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "HotPathBenchmark";
+    private static final int SIZE = 256;
+    static final String RESULTS_FILE = "hotpath-benchmark.csv";
+    static final String THRESHOLDS_FILE = "benchmark-thresholds.csv";
+    private static final String RESULTS_HEADER = "name,unit,count,mean,p50,p90,p99,max";
+
+    /**
+     * Whether or not the results file was started in this process; results of an earlier run are replaced.
+     */
+    private static boolean sResultsStarted;
+    /**
+     * Maps "name,column" to the largest value allowed for that column of a result.
+     */
+    private static Map<String, Double> sThresholds;
+
+    private File dir;
+    private byte[] encoded;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File(getContext().getCacheDir(), "benchmark");
+        deleteRecursively(dir);
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.rgb(120, 200, 40));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out));
+        bitmap.recycle();
+        encoded = out.toByteArray();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(dir);
+        super.tearDown();
+    }
+
+    public void testKeyGeneration() throws IOException {
+        String[] sources = new String[1000];
+        for (int i = 0; i < sources.length; i++)
+            sources[i] = "https://images.example.com/photos/" + i + "/large.jpg?width=1024&quality=85";
+        Dimension dimension = new Dimension(SIZE);
+        int rounds = 100;
+
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String source : sources)
+                assertNotNull(new CacheKey(source, dimension).toFileName());
+        }
+        reportPerOp("CacheKey.toFileName", start, rounds * sources.length);
+
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String source : sources)
+                assertNotNull(Utils.getKey(source, dimension));
+        }
+        reportPerOp("Utils.getKey (deprecated)", start, rounds * sources.length);
+    }
+
+    public void testCopy() throws IOException {
+        byte[] data = new byte[4 * 1024 * 1024];
+        // A network stream hands out whatever arrived, usually much less than the copy buffer
+        int[] readSizes = new int[]{1024, 4 * 1024, 16 * 1024, 64 * 1024};
+        for (int readSize : readSizes) {
+            Histogram histogram = new Histogram();
+            for (int i = 0; i < 20; i++) {
+                long start = System.nanoTime();
+                assertEquals(data.length, IOUtils.copy(new ChunkedInputStream(data, readSize), new NullOutputStream()));
+                histogram.record((System.nanoTime() - start) / 1000);
+            }
+            report("IOUtils.copy 4MB in " + readSize + " byte reads", histogram);
+        }
+    }
+
+    public void testDiskCache() throws Exception {
+        DiskCache cache = new DiskCache(getContext());
+        cache.setCacheDirectory(new File(dir, "disk"));
+        int entries = 200;
+        Histogram writes = new Histogram();
+        for (int i = 0; i < entries; i++) {
+            long start = System.nanoTime();
+            cache.put(new CacheKey("disk-" + i, null).toFileName(), encoded);
+            writes.record((System.nanoTime() - start) / 1000);
+        }
+        report("DiskCache.put", writes);
+
+        Histogram reads = new Histogram();
+        for (int i = 0; i < entries; i++) {
+            long start = System.nanoTime();
+            File file = cache.getFile(new CacheKey("disk-" + i, null).toFileName());
+            assertNotNull(file);
+            InputStream input = new FileInputStream(file);
+            try {
+                IOUtils.drain(input);
+            } finally {
+                input.close();
+            }
+            reads.record((System.nanoTime() - start) / 1000);
+        }
+        report("DiskCache.getFile and read", reads);
+    }
+
+    public void testImageManager() throws Exception {
+        TestServer server = new TestServer(new TestServer.Dispatcher() {
+            @Override
+            public TestServer.Reply dispatch(TestServer.Request request) {
+                return new TestServer.Reply(200).setBody(encoded).setHeader("Cache-Control", "max-age=3600");
+            }
+        });
+        final ImageManager manager = new ImageManager(getContext()).setCacheDirectory(new File(dir, "manager"));
+        try {
+            final Dimension dimension = new Dimension(SIZE / 2);
+            final int images = 50;
+            Histogram network = new Histogram();
+            for (int i = 0; i < images; i++) {
+                long start = System.nanoTime();
+                assertNotNull(manager.get(server.getUrl("/image-" + i), dimension));
+                network.record((System.nanoTime() - start) / 1000);
+            }
+            report("ImageManager.get from the network", network);
+            assertEquals(images, server.getRequestCount());
+
+            manager.clearMemory();
+            Histogram disk = new Histogram();
+            for (int i = 0; i < images; i++) {
+                long start = System.nanoTime();
+                assertNotNull(manager.get(server.getUrl("/image-" + i), dimension));
+                disk.record((System.nanoTime() - start) / 1000);
+            }
+            report("ImageManager.get from the disk cache", disk);
+            assertEquals(images, server.getRequestCount());
+
+            // Every thread looks up every image over and over, all in the memory cache by now
+            final int threads = 4;
+            final int lookups = 20000;
+            final CountDownLatch done = new CountDownLatch(threads);
+            final String[] sources = new String[images];
+            for (int i = 0; i < images; i++)
+                sources[i] = server.getUrl("/image-" + i);
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < lookups; i++)
+                            manager.getFromMemory(sources[i % sources.length], dimension);
+                        done.countDown();
+                    }
+                }).start();
+            }
+            done.await();
+            reportPerOp("ImageManager.getFromMemory on " + threads + " threads", start, threads * lookups);
+            for (String source : sources)
+                assertNotNull(manager.getFromMemory(source, dimension));
+        } finally {
+            manager.release();
+            server.close();
+        }
+    }
+
+    private void report(String name, Histogram histogram) throws IOException {
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        Log.i(TAG, name + ": " + snapshot);
+        writeResult(name + ",us," + snapshot.getCount() + ',' + Math.round(snapshot.getMean()) + ',' +
+                snapshot.getPercentile(50) + ',' + snapshot.getPercentile(90) + ',' + snapshot.getPercentile(99) + ',' +
+                snapshot.getMax());
+        checkThreshold(name, "mean", snapshot.getMean());
+        checkThreshold(name, "p50", snapshot.getPercentile(50));
+        checkThreshold(name, "p90", snapshot.getPercentile(90));
+        checkThreshold(name, "p99", snapshot.getPercentile(99));
+        checkThreshold(name, "max", snapshot.getMax());
+    }
+
+    private void reportPerOp(String name, long startNanos, long ops) throws IOException {
+        long perOp = (System.nanoTime() - startNanos) / ops;
+        Log.i(TAG, name + ": " + perOp + "ns per operation, " + ops + " operations");
+        // A single average, the percentile columns are left empty
+        writeResult(name + ",ns/op," + ops + ',' + perOp + ",,,,");
+        checkThreshold(name, "mean", perOp);
+    }
+
+    private void writeResult(String row) throws IOException {
+        File dir = getContext().getExternalFilesDir(null);
+        if (dir == null)
+            dir = getContext().getFilesDir();
+        File file = new File(dir, RESULTS_FILE);
+        boolean start = !sResultsStarted;
+        sResultsStarted = true;
+        Writer writer = new FileWriter(file, !start);
+        try {
+            if (start)
+                writer.write(RESULTS_HEADER + '\n');
+            writer.write(row + '\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void checkThreshold(String name, String column, double value) throws IOException {
+        Double max = loadThresholds().get(name + ',' + column);
+        if (max != null && value > max)
+            fail(name + ": " + column + " was " + Math.round(value) + ", the threshold is " + Math.round(max));
+    }
+
+    /**
+     * Reads the thresholds, lines of "name,column,max" (e.g. "DiskCache.put,p50,20000"). Lines starting with a # are
+     * comments; results without a threshold are only recorded.
+     */
+    private Map<String, Double> loadThresholds() throws IOException {
+        if (sThresholds != null)
+            return sThresholds;
+        Map<String, Double> thresholds = new HashMap<String, Double>();
+        InputStream input;
+        try {
+            input = getContext().getAssets().open(THRESHOLDS_FILE);
+        } catch (FileNotFoundException e) {
+            sThresholds = thresholds;
+            return thresholds;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#"))
+                    continue;
+                int last = line.lastIndexOf(',');
+                if (last <= 0)
+                    throw new IOException("Invalid threshold: " + line);
+                thresholds.put(line.substring(0, last), Double.parseDouble(line.substring(last + 1)));
+            }
+        } finally {
+            reader.close();
+        }
+        sThresholds = thresholds;
+        return thresholds;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteRecursively(child);
+        }
+        file.delete();
+    }
+
+    /**
+     * Reads an array in chunks of at most a fixed size, like a socket that only has part of the data available.
+     */
+    private static class ChunkedInputStream extends InputStream {
+
+        public ChunkedInputStream(byte[] data, int chunkSize) {
+            this.input = new ByteArrayInputStream(data);
+            this.chunkSize = chunkSize;
+        }
+
+        private final InputStream input;
+        private final int chunkSize;
+
+        @Override
+        public int read() throws IOException {
+            return input.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return input.read(buffer, offset, Math.min(length, chunkSize));
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.afollestad.aimage;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Tests how {@link ImageHeader} sniffs transparency from the headers of each format.
+ *
+ * @author Aidan Follestad
+ */
+public class ImageHeaderTest extends TestCase {
+
+    private static final int PNG_GRAY = 0;
+    private static final int PNG_RGB = 2;
+    private static final int PNG_PALETTE = 3;
+    private static final int PNG_RGBA = 6;
+
+    public void testJpegIsOpaque() {
+        assertFalse(mayHaveAlpha(bytes(0xFF, 0xD8, 0xFF, 0xE0, 0x00, 0x10)));
+    }
+
+    public void testUnknownDataMayHaveAlpha() {
+        assertTrue(mayHaveAlpha(new byte[0]));
+        assertTrue(mayHaveAlpha(bytes('B', 'M', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0)));
+        assertTrue(mayHaveAlpha(bytes(0xFF, 0xD8)));
+    }
+
+    public void testPngColorTypes() {
+        assertTrue(mayHaveAlpha(png(PNG_RGBA).chunk("IDAT", 16).toByteArray()));
+        assertFalse(mayHaveAlpha(png(PNG_RGB).chunk("IDAT", 16).toByteArray()));
+        assertFalse(mayHaveAlpha(png(PNG_GRAY).chunk("gAMA", 4).chunk("IDAT", 16).toByteArray()));
+        assertFalse(mayHaveAlpha(png(PNG_PALETTE).chunk("PLTE", 3 * 16).chunk("IDAT", 16).toByteArray()));
+    }
+
+    public void testPngTransparencyChunk() {
+        assertTrue(mayHaveAlpha(png(PNG_PALETTE).chunk("PLTE", 3 * 16).chunk("tRNS", 16).chunk("IDAT", 16)
+                .toByteArray()));
+        assertTrue(mayHaveAlpha(png(PNG_RGB).chunk("tRNS", 6).chunk("IDAT", 16).toByteArray()));
+    }
+
+    public void testTruncatedPngMayHaveAlpha() {
+        // The header was cut off before the image data, so a tRNS chunk could still follow
+        byte[] data = png(PNG_PALETTE).chunk("PLTE", 3 * 256).chunk("IDAT", 16).toByteArray();
+        assertTrue(ImageHeader.mayHaveAlpha(data, 100));
+        assertTrue(ImageHeader.mayHaveAlpha(data, 20));
+    }
+
+    public void testWebp() {
+        assertFalse(mayHaveAlpha(webp("VP8 ", 0)));
+        assertTrue(mayHaveAlpha(webp("VP8L", 0x10)));
+        assertFalse(mayHaveAlpha(webp("VP8L", 0)));
+        assertTrue(mayHaveAlpha(webp("VP8X", 0x10)));
+        assertFalse(mayHaveAlpha(webp("VP8X", 0)));
+        assertTrue(mayHaveAlpha(webp("XXXX", 0)));
+    }
+
+    public void testGif() {
+        assertFalse(mayHaveAlpha(gif(false, false)));
+        assertFalse(mayHaveAlpha(gif(true, false)));
+        assertTrue(mayHaveAlpha(gif(true, true)));
+    }
+
+    public void testGifSkipsOtherExtensions() {
+        Writer gif = gifHeader();
+        // An application extension with two sub-blocks, then a transparent graphic control extension
+        gif.write(0x21, 0xFF, 3, 'A', 'B', 'C', 2, 1, 2, 0);
+        gif.write(0x21, 0xF9, 4, 0x01, 0, 0, 0, 0);
+        gif.write(0x2C);
+        assertTrue(mayHaveAlpha(gif.toByteArray()));
+    }
+
+    private static boolean mayHaveAlpha(byte[] data) {
+        return ImageHeader.mayHaveAlpha(data, data.length);
+    }
+
+    private static byte[] bytes(int... values) {
+        return new Writer().write(values).toByteArray();
+    }
+
+    private static Writer png(int colorType) {
+        Writer png = new Writer();
+        png.write(0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n');
+        png.int32(13).ascii("IHDR").int32(64).int32(64).write(8, colorType, 0, 0, 0).int32(0);
+        return png;
+    }
+
+    private static byte[] webp(String chunk, int flags) {
+        Writer webp = new Writer().ascii("RIFF").int32(0).ascii("WEBP").ascii(chunk);
+        // Chunk size, then the VP8L signature byte or the VP8X flags
+        webp.int32(0).write(chunk.equals("VP8L") ? 0x2F : flags);
+        webp.write(0, 0, 0, chunk.equals("VP8L") ? flags : 0, 0, 0, 0, 0);
+        return webp.toByteArray();
+    }
+
+    private static Writer gifHeader() {
+        // A 2 color global color table
+        return new Writer().ascii("GIF89a").write(1, 0, 1, 0, 0x80, 0, 0).write(0, 0, 0, 255, 255, 255);
+    }
+
+    private static byte[] gif(boolean graphicControl, boolean transparent) {
+        Writer gif = gifHeader();
+        if (graphicControl)
+            gif.write(0x21, 0xF9, 4, transparent ? 0x01 : 0, 0, 0, 0, 0);
+        gif.write(0x2C, 0, 0, 0, 0, 1, 0, 1, 0, 0);
+        return gif.toByteArray();
+    }
+
+    private static class Writer {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        public Writer write(int... values) {
+            for (int value : values)
+                out.write(value);
+            return this;
+        }
+
+        public Writer int32(int value) {
+            return write(value >>> 24, (value >>> 16) & 0xFF, (value >>> 8) & 0xFF, value & 0xFF);
+        }
+
+        public Writer ascii(String value) {
+            for (int i = 0; i < value.length(); i++)
+                out.write(value.charAt(i));
+            return this;
+        }
+
+        /**
+         * Writes a PNG chunk with empty data and a zero CRC, which the sniffer doesn't check.
+         */
+        public Writer chunk(String type, int length) {
+            int32(length).ascii(type);
+            for (int i = 0; i < length; i++)
+                out.write(0);
+            return int32(0);
+        }
+
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.afollestad.aimage;
+
+import com.afollestad.aimage.metrics.Histogram;
+import com.afollestad.aimage.metrics.ImageMetrics;
+import com.afollestad.aimage.metrics.Timing;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the order {@link PriorityExecutor} runs queued work in. The executor gets a single thread that's kept busy
+ * while the work is queued, so everything is ordered by the queue alone.
+ *
+ * @author Aidan Follestad
+ */
+public class PriorityExecutorTest extends TestCase {
+
+    private PriorityExecutor executor;
+    private CountDownLatch unblock;
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = new PriorityExecutor(1, Executors.defaultThreadFactory());
+        unblock = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, Priority.VISIBLE);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        unblock.countDown();
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testHigherPriorityRunsFirst() throws InterruptedException {
+        submit("background", Priority.BACKGROUND);
+        submit("visible", Priority.VISIBLE);
+        submit("prefetch", Priority.PREFETCH);
+        runQueued();
+        assertEquals(Arrays.asList("visible", "prefetch", "background"), executed);
+    }
+
+    public void testSamePriorityIsLastInFirstOut() throws InterruptedException {
+        submit("first", Priority.VISIBLE);
+        submit("second", Priority.VISIBLE);
+        submit("third", Priority.VISIBLE);
+        submit("prefetch", Priority.PREFETCH);
+        runQueued();
+        assertEquals(Arrays.asList("third", "second", "first", "prefetch"), executed);
+    }
+
+    public void testCancelledWorkIsRemovedFromTheQueue() throws InterruptedException {
+        submit("kept", Priority.VISIBLE);
+        PriorityExecutor.Task cancelled = submit("cancelled", Priority.VISIBLE);
+        assertTrue(cancelled.cancel(false));
+        assertFalse(executor.getQueue().contains(cancelled));
+        runQueued();
+        assertEquals(Arrays.asList("kept"), executed);
+        assertTrue(cancelled.isCancelled());
+    }
+
+    public void testReprioritize() throws InterruptedException {
+        PriorityExecutor.Task offscreen = submit("offscreen", Priority.BACKGROUND);
+        submit("visible", Priority.VISIBLE);
+        submit("newer visible", Priority.VISIBLE);
+        // Scrolled back into view: it goes ahead of the work that was already visible
+        assertTrue(offscreen.setPriority(Priority.VISIBLE));
+        assertEquals(Priority.VISIBLE, offscreen.getPriority());
+        runQueued();
+        assertEquals(Arrays.asList("offscreen", "newer visible", "visible"), executed);
+        // Not queued anymore
+        assertFalse(offscreen.setPriority(Priority.BACKGROUND));
+    }
+
+    public void testQueueWaitIsRecorded() throws InterruptedException {
+        ImageMetrics metrics = new ImageMetrics();
+        executor.setMetrics(metrics, Timing.DISK_QUEUE_WAIT);
+        submit("first", Priority.VISIBLE);
+        PriorityExecutor.Task moved = submit("second", Priority.BACKGROUND);
+        Thread.sleep(50);
+        // Moving a task doesn't reset how long it has been waiting
+        assertTrue(moved.setPriority(Priority.VISIBLE));
+        runQueued();
+
+        Histogram.Snapshot waits = metrics.snapshot().getTiming(Timing.DISK_QUEUE_WAIT);
+        assertEquals(2, waits.getCount());
+        // In microseconds, both waited for the blocking work
+        assertTrue("Waited " + waits.getMax() + "us", waits.getMax() >= 50 * 1000);
+        assertEquals(0, metrics.snapshot().getTiming(Timing.NETWORK_QUEUE_WAIT).getCount());
+    }
+
+    public void testSetThreadCount() throws InterruptedException {
+        executor.setThreadCount(3);
+        assertEquals(3, executor.getCorePoolSize());
+        assertEquals(3, executor.getMaximumPoolSize());
+        // The extra threads run queued work while the first one is still busy
+        final CountDownLatch ran = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    ran.countDown();
+                }
+            }, Priority.VISIBLE);
+        }
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        executor.setThreadCount(1);
+        assertEquals(1, executor.getCorePoolSize());
+        assertEquals(1, executor.getMaximumPoolSize());
+    }
+
+    private PriorityExecutor.Task submit(final String name, Priority priority) {
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                executed.add(name);
+            }
+        }, priority);
+    }
+
+    /**
+     * Lets the blocking work finish, and waits for everything that was queued behind it.
+     */
+    private void runQueued() throws InterruptedException {
+        unblock.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        // The task count only includes queued work, so cancelled tasks that were removed aren't waited for
+        while (executor.getCompletedTaskCount() < executor.getTaskCount() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(executor.getTaskCount(), executor.getCompletedTaskCount());
+    }
+}
@@ -0,0 +1,281 @@
+package com.afollestad.aimage.cache;
+
+import android.test.AndroidTestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the journaled {@link DiskCache}: entries, metadata and their access order must survive a restart (a new
+ * instance on the same directory), entries are evicted least recently used first, and nothing is visible until it's
+ * committed.
+ *
+ * @author Aidan Follestad
+ */
+public class DiskCacheTest extends AndroidTestCase {
+
+    private File dir;
+    private DiskCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File(getContext().getCacheDir(), "disk-cache-test");
+        deleteRecursively(dir);
+        cache = open();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(dir);
+        super.tearDown();
+    }
+
+    private DiskCache open() {
+        DiskCache cache = new DiskCache(getContext());
+        cache.setCacheDirectory(dir);
+        return cache;
+    }
+
+    public void testPutAndGet() throws Exception {
+        cache.put("a", bytes(10));
+        File file = cache.getFile("a");
+        assertNotNull(file);
+        assertEquals(10, file.length());
+        assertTrue(cache.contains("a"));
+        assertEquals(10, cache.getSize());
+        assertNull(cache.getFile("b"));
+        assertFalse(cache.contains("b"));
+    }
+
+    public void testJournalReplay() throws Exception {
+        cache.put("a", bytes(10));
+        cache.put("b", bytes(20));
+        cache.put("c", bytes(30));
+        cache.remove("b");
+
+        DiskCache reopened = open();
+        assertTrue(reopened.contains("a"));
+        assertFalse(reopened.contains("b"));
+        assertTrue(reopened.contains("c"));
+        assertEquals(40, reopened.getSize());
+    }
+
+    public void testReadsMoveEntriesToTheEnd() throws Exception {
+        cache.put("a", bytes(10));
+        cache.put("b", bytes(10));
+        cache.put("c", bytes(10));
+        assertNotNull(cache.getFile("a"));
+        // Reads aren't flushed on their own, the next commit takes them along
+        cache.put("d", bytes(10));
+
+        DiskCache reopened = open();
+        assertEquals(40, reopened.getSize());
+        reopened.setMaxSize(20);
+        // b and c are the least recently used, a was read after them
+        assertFalse(reopened.contains("b"));
+        assertFalse(reopened.contains("c"));
+        assertTrue(reopened.contains("a"));
+        assertTrue(reopened.contains("d"));
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        cache.setMaxSize(30);
+        cache.put("a", bytes(10));
+        cache.put("b", bytes(10));
+        cache.put("c", bytes(10));
+        assertNotNull(cache.getFile("a"));
+        cache.put("d", bytes(10));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("a"));
+        assertTrue(cache.contains("c"));
+        assertTrue(cache.contains("d"));
+        assertEquals(30, cache.getSize());
+        assertFalse(new File(dir, "b.img").exists());
+    }
+
+    public void testEntryLargerThanTheCacheIsKeptUntilTheNextCommit() throws Exception {
+        cache.setMaxSize(50);
+        cache.put("a", bytes(10));
+        cache.put("large", bytes(100));
+        // Its caller is about to read it, but nothing else fits next to it
+        assertNotNull(cache.getFile("large"));
+        assertFalse(cache.contains("a"));
+
+        cache.put("b", bytes(10));
+        assertFalse(cache.contains("large"));
+        assertTrue(cache.contains("b"));
+        assertEquals(10, cache.getSize());
+    }
+
+    public void testMetadata() throws Exception {
+        DiskCache.Editor editor = cache.edit("a");
+        editor.newOutputStream().write(bytes(10));
+        // Spaces and line breaks must survive the journal
+        editor.setMetadata("etag 1\nlast modified");
+        editor.commit();
+        cache.put("b", bytes(10));
+        cache.setMetadata("b", "second");
+        cache.setMetadata("missing", "ignored");
+        assertEquals("etag 1\nlast modified", cache.getMetadata("a"));
+
+        DiskCache reopened = open();
+        assertEquals("etag 1\nlast modified", reopened.getMetadata("a"));
+        assertEquals("second", reopened.getMetadata("b"));
+        assertNull(reopened.getMetadata("missing"));
+        assertFalse(reopened.contains("missing"));
+
+        reopened.setMetadata("b", null);
+        reopened.remove("a");
+        DiskCache again = open();
+        assertNull(again.getMetadata("a"));
+        assertNull(again.getMetadata("b"));
+        assertTrue(again.contains("b"));
+    }
+
+    public void testCommitReplacesEntryAndMetadata() throws Exception {
+        DiskCache.Editor editor = cache.edit("a");
+        editor.newOutputStream().write(bytes(10));
+        editor.setMetadata("v1");
+        editor.commit();
+        cache.put("a", bytes(25));
+        assertEquals(25, cache.getFile("a").length());
+        assertEquals(25, cache.getSize());
+        assertNull(cache.getMetadata("a"));
+        assertEquals(25, open().getSize());
+    }
+
+    public void testCommitMovesTempFileIntoPlace() throws Exception {
+        DiskCache.Editor editor = cache.edit("a");
+        OutputStream out = editor.newOutputStream();
+        out.write(bytes(10));
+        File temp = editor.close();
+        assertEquals(10, temp.length());
+        assertFalse(temp.getParentFile().equals(dir));
+        // Written, but not visible until it's committed
+        assertFalse(cache.contains("a"));
+        assertNull(cache.getFile("a"));
+
+        File committed = editor.commit();
+        assertFalse(temp.exists());
+        assertEquals(dir, committed.getParentFile());
+        assertEquals(committed, cache.getFile("a"));
+        editor.abort();
+        assertTrue(committed.exists());
+    }
+
+    public void testAbort() throws Exception {
+        DiskCache.Editor editor = cache.edit("a");
+        editor.newOutputStream().write(bytes(10));
+        File temp = editor.getFile();
+        editor.abort();
+        assertFalse(temp.exists());
+        assertFalse(cache.contains("a"));
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testEditorsForTheSameKeyUseDifferentTempFiles() throws Exception {
+        DiskCache.Editor first = cache.edit("a");
+        DiskCache.Editor second = cache.edit("a");
+        assertFalse(first.getFile().equals(second.getFile()));
+        first.abort();
+        second.abort();
+    }
+
+    public void testTempFilesAreDeletedOnStart() throws Exception {
+        DiskCache.Editor editor = cache.edit("a");
+        editor.newOutputStream().write(bytes(10));
+        File temp = editor.close();
+        assertTrue(temp.exists());
+
+        // A crash left the editor behind
+        DiskCache reopened = open();
+        assertEquals(0, reopened.getSize());
+        assertFalse(temp.exists());
+    }
+
+    public void testFileDeletedFromOutside() throws Exception {
+        cache.put("a", bytes(10));
+        cache.put("b", bytes(20));
+        assertTrue(cache.getFile("a").delete());
+        assertNull(cache.getFile("a"));
+        assertFalse(cache.contains("a"));
+        assertEquals(20, cache.getSize());
+        assertFalse(open().contains("a"));
+    }
+
+    public void testCorruptJournalIsRebuiltFromTheDirectory() throws Exception {
+        cache.put("a", bytes(10));
+        cache.put("b", bytes(20));
+        File journal = new File(dir, "journal");
+        assertTrue(journal.delete());
+        assertTrue(journal.createNewFile());
+
+        DiskCache reopened = open();
+        assertTrue(reopened.contains("a"));
+        assertTrue(reopened.contains("b"));
+        assertEquals(30, reopened.getSize());
+    }
+
+    public void testJournalIsCompacted() throws Exception {
+        cache.put("a", bytes(10));
+        cache.put("b", bytes(10));
+        for (int i = 0; i < 5000; i++)
+            assertNotNull(cache.getFile(i % 2 == 0 ? "a" : "b"));
+        cache.put("c", bytes(10));
+        // Thousands of reads, but the journal only ever grows to the compaction threshold
+        assertTrue(readJournal().size() < 2100);
+
+        DiskCache reopened = open();
+        assertEquals(30, reopened.getSize());
+        assertTrue(reopened.contains("a"));
+        assertTrue(reopened.contains("b"));
+        assertTrue(reopened.contains("c"));
+    }
+
+    public void testClear() throws Exception {
+        cache.put("a", bytes(10));
+        cache.put("b", bytes(10));
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertFalse(cache.contains("a"));
+        assertFalse(new File(dir, "a.img").exists());
+        assertEquals(0, open().getSize());
+        // Only the header is left
+        assertEquals(2, readJournal().size());
+    }
+
+    private List<String> readJournal() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(new File(dir, "journal")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null)
+                lines.add(line);
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) i;
+        return data;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteRecursively(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,126 @@
+package com.afollestad.aimage.metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the buckets and percentiles of {@link Histogram}.
+ *
+ * @author Aidan Follestad
+ */
+public class HistogramTest extends TestCase {
+
+    public void testEmpty() {
+        Histogram.Snapshot snapshot = new Histogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0.0, snapshot.getMean(), 0);
+        assertEquals(0, snapshot.getPercentile(50));
+        assertEquals(0, snapshot.getPercentile(99));
+    }
+
+    public void testSmallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int value = 0; value < Histogram.SUB_BUCKETS; value++)
+            histogram.record(value);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(Histogram.SUB_BUCKETS, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(0));
+        assertEquals(Histogram.SUB_BUCKETS / 2 - 1, snapshot.getPercentile(50));
+        assertEquals(Histogram.SUB_BUCKETS - 1, snapshot.getPercentile(100));
+    }
+
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 1000; value++)
+            histogram.record(value);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+        assertWithinBucket(500, snapshot.getPercentile(50));
+        assertWithinBucket(900, snapshot.getPercentile(90));
+        assertWithinBucket(990, snapshot.getPercentile(99));
+        // The upper bound of the last bucket is never reported above the largest value
+        assertEquals(1000, snapshot.getPercentile(100));
+    }
+
+    public void testOutlier() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 99; i++)
+            histogram.record(10);
+        histogram.record(1000000);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertWithinBucket(10, snapshot.getPercentile(50));
+        assertWithinBucket(10, snapshot.getPercentile(99));
+        assertEquals(1000000, snapshot.getPercentile(99.5));
+    }
+
+    public void testNegativeValuesAreRecordedAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(100));
+    }
+
+    public void testLargestValue() {
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.snapshot().getMax());
+        assertEquals(Long.MAX_VALUE, histogram.snapshot().getPercentile(50));
+    }
+
+    public void testBucketBounds() {
+        int previous = -1;
+        for (long value = 0; value < 1L << 20; value = value < 64 ? value + 1 : value + value / 7) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue("Buckets must not go down at " + value, bucket >= previous);
+            long upper = Histogram.upperBoundOf(bucket);
+            assertTrue("The bucket of " + value + " ends at " + upper, upper >= value);
+            assertTrue("The bucket of " + value + " is too wide: " + upper, upper <= value + value / 8);
+            assertEquals(bucket, Histogram.bucketOf(upper));
+            assertEquals(bucket + 1, Histogram.bucketOf(upper + 1));
+            previous = bucket;
+        }
+    }
+
+    public void testReset() {
+        Histogram histogram = new Histogram();
+        histogram.record(100);
+        histogram.reset();
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(100));
+    }
+
+    public void testConcurrentRecording() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        final int perThread = 10000;
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int offset = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int value = 1; value <= perThread; value++)
+                        histogram.record(value + offset);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(threads.length * perThread, snapshot.getCount());
+        assertEquals(perThread + threads.length - 1, snapshot.getMax());
+    }
+
+    /**
+     * Percentiles are reported as the upper bound of their bucket, which is at most an eighth above the value.
+     */
+    private static void assertWithinBucket(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / Histogram.SUB_BUCKETS);
+    }
+}
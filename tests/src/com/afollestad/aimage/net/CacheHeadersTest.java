@@ -0,0 +1,179 @@
+package com.afollestad.aimage.net;
+
+import junit.framework.TestCase;
+
+import java.net.URL;
+import java.net.URLConnection;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Tests how {@link CacheHeaders} reads validators and freshness from response headers, and how it's stored.
+ *
+ * @author Aidan Follestad
+ */
+public class CacheHeadersTest extends TestCase {
+
+    private static final long SECOND = 1000;
+    private static final long HOUR = 60 * 60 * SECOND;
+    private static final long DAY = 24 * HOUR;
+    // Leaves room for the clock to move between reading the headers and checking the result
+    private static final long SLACK = 5 * SECOND;
+
+    public void testMaxAge() throws Exception {
+        long now = System.currentTimeMillis();
+        CacheHeaders headers = read(new Response().header("Cache-Control", "public, max-age=60"));
+        assertExpiresAround(now + 60 * SECOND, headers);
+        assertFalse(headers.isStale(now));
+        assertTrue(headers.isStale(now + 61 * SECOND));
+    }
+
+    public void testNoCacheIsStale() throws Exception {
+        long now = System.currentTimeMillis();
+        CacheHeaders headers = read(new Response().header("Cache-Control", "no-cache, max-age=3600"));
+        assertTrue(headers.isStale(now + SLACK));
+    }
+
+    public void testInvalidMaxAgeIsStale() throws Exception {
+        long now = System.currentTimeMillis();
+        CacheHeaders headers = read(new Response().header("Cache-Control", "max-age=soon"));
+        assertTrue(headers.isStale(now + SLACK));
+    }
+
+    public void testNoStore() throws Exception {
+        assertTrue(read(new Response().header("Cache-Control", "No-Store")).isNoStore());
+        assertFalse(read(new Response().header("Cache-Control", "max-age=60")).isNoStore());
+    }
+
+    public void testExpiresIsRelativeToDate() throws Exception {
+        // The server's clock is a year behind; the response is still fresh for an hour from now
+        long now = System.currentTimeMillis();
+        long serverNow = now - 365 * DAY;
+        CacheHeaders headers = read(new Response()
+                .date("Date", serverNow)
+                .date("Expires", serverNow + HOUR));
+        assertExpiresAround(now + HOUR, headers);
+    }
+
+    public void testInvalidExpiresIsStale() throws Exception {
+        long now = System.currentTimeMillis();
+        CacheHeaders headers = read(new Response().header("Expires", "0"));
+        assertTrue(headers.isStale(now + SLACK));
+    }
+
+    public void testMaxAgeWinsOverExpires() throws Exception {
+        long now = System.currentTimeMillis();
+        CacheHeaders headers = read(new Response()
+                .header("Cache-Control", "max-age=60")
+                .date("Date", now)
+                .date("Expires", now + DAY));
+        assertExpiresAround(now + 60 * SECOND, headers);
+    }
+
+    public void testLastModifiedHeuristic() throws Exception {
+        // Changed ten days ago, so it's fresh for a day
+        long now = System.currentTimeMillis();
+        CacheHeaders headers = read(new Response()
+                .date("Date", now)
+                .date("Last-Modified", now - 10 * DAY));
+        assertExpiresAround(now + DAY, headers);
+        assertTrue(headers.hasValidators());
+    }
+
+    public void testNoFreshnessInformationNeverExpires() throws Exception {
+        CacheHeaders headers = read(new Response());
+        assertEquals(CacheHeaders.NEVER_EXPIRES, headers.getExpires());
+        assertFalse(headers.hasValidators());
+    }
+
+    public void testNotModifiedKeepsPreviousValidators() throws Exception {
+        CacheHeaders previous = new CacheHeaders("\"v1\"", "Mon, 01 Jul 2013 00:00:00 GMT", 0, false);
+        CacheHeaders headers = read(new Response().header("Cache-Control", "max-age=60"), previous);
+        assertEquals("\"v1\"", headers.getETag());
+        assertEquals("Mon, 01 Jul 2013 00:00:00 GMT", headers.getLastModified());
+        assertTrue(headers.isSameVersion(previous));
+
+        CacheHeaders changed = read(new Response().header("ETag", "\"v2\""), previous);
+        assertEquals("\"v2\"", changed.getETag());
+        assertFalse(changed.isSameVersion(previous));
+    }
+
+    public void testNotModifiedWithoutLastModifiedUsesPreviousDate() throws Exception {
+        // A 304 that only has a Date header: the heuristic goes by the Last-Modified date of the cached response
+        long now = System.currentTimeMillis();
+        CacheHeaders previous = read(new Response().date("Date", now - DAY).date("Last-Modified", now - 20 * DAY));
+        CacheHeaders headers = read(new Response().date("Date", now), previous);
+        assertEquals(previous.getLastModified(), headers.getLastModified());
+        assertExpiresAround(now + 2 * DAY, headers);
+    }
+
+    public void testStoredFormRoundTrips() {
+        CacheHeaders headers = new CacheHeaders("\"abc\"", "Mon, 01 Jul 2013 00:00:00 GMT", 1234567890L, false);
+        CacheHeaders parsed = CacheHeaders.parse(headers.toString());
+        assertEquals("\"abc\"", parsed.getETag());
+        assertEquals("Mon, 01 Jul 2013 00:00:00 GMT", parsed.getLastModified());
+        assertEquals(1234567890L, parsed.getExpires());
+
+        CacheHeaders empty = CacheHeaders.parse(new CacheHeaders(null, null, 42, false).toString());
+        assertNull(empty.getETag());
+        assertNull(empty.getLastModified());
+        assertEquals(42, empty.getExpires());
+    }
+
+    public void testInvalidStoredFormIsIgnored() {
+        assertNull(CacheHeaders.parse(null));
+        assertNull(CacheHeaders.parse(""));
+        assertNull(CacheHeaders.parse("etag\nlast-modified"));
+        assertNull(CacheHeaders.parse("etag\nlast-modified\nnot a number"));
+    }
+
+    private static void assertExpiresAround(long expected, CacheHeaders headers) {
+        long expires = headers.getExpires();
+        assertTrue("Expected an expiry around " + expected + " but was " + expires,
+                expires >= expected - SLACK && expires <= expected + SLACK);
+    }
+
+    private static CacheHeaders read(Response response) throws Exception {
+        return read(response, null);
+    }
+
+    private static CacheHeaders read(Response response, CacheHeaders previous) throws Exception {
+        return CacheHeaders.fromConnection(response.toConnection(), previous);
+    }
+
+    /**
+     * The headers of a response, served by a connection that's never opened.
+     */
+    private static class Response {
+
+        private final Map<String, String> headers = new HashMap<String, String>();
+
+        public Response header(String name, String value) {
+            headers.put(name.toLowerCase(Locale.US), value);
+            return this;
+        }
+
+        public Response date(String name, long time) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return header(name, format.format(new Date(time)));
+        }
+
+        public URLConnection toConnection() throws Exception {
+            return new URLConnection(new URL("http://localhost/image.png")) {
+                @Override
+                public void connect() {
+                }
+
+                @Override
+                public String getHeaderField(String name) {
+                    return name != null ? headers.get(name.toLowerCase(Locale.US)) : null;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.afollestad.aimage.net;
+
+import com.afollestad.aimage.cache.IOUtils;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+/**
+ * Tests {@link HttpFetcher} against a {@link TestServer}: successful and failed responses, revalidation with ETag and
+ * Last-Modified, timeouts and connection reuse.
+ *
+ * @author Aidan Follestad
+ */
+public class HttpFetcherTest extends TestCase {
+
+    private static final byte[] IMAGE = new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 1, 2, 3, 4, 5};
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Mon, 01 Jul 2013 00:00:00 GMT";
+
+    private TestServer server;
+    private HttpFetcher fetcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new TestServer(new TestServer.Dispatcher() {
+            @Override
+            public TestServer.Reply dispatch(TestServer.Request request) {
+                return reply(request);
+            }
+        });
+        fetcher = new HttpFetcher();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+        super.tearDown();
+    }
+
+    /**
+     * Serves the test image under /image with validators, revalidates it like a real server would, and replies to
+     * a few other paths with other statuses.
+     */
+    private static TestServer.Reply reply(TestServer.Request request) {
+        String path = request.getPath();
+        if (path.equals("/image")) {
+            if (ETAG.equals(request.getHeader("If-None-Match")) ||
+                    (request.getHeader("If-None-Match") == null &&
+                            LAST_MODIFIED.equals(request.getHeader("If-Modified-Since")))) {
+                return new TestServer.Reply(304).setHeader("Cache-Control", "max-age=60");
+            }
+            return new TestServer.Reply(200).setBody(IMAGE)
+                    .setHeader("ETag", ETAG)
+                    .setHeader("Last-Modified", LAST_MODIFIED)
+                    .setHeader("Cache-Control", "max-age=60");
+        } else if (path.equals("/missing")) {
+            return new TestServer.Reply(404).setBody("Not found".getBytes());
+        } else if (path.equals("/unavailable")) {
+            return new TestServer.Reply(503).setBody("Try again later".getBytes());
+        } else if (path.equals("/slow")) {
+            return new TestServer.Reply(200).setBody(IMAGE).setDelay(3000);
+        }
+        return new TestServer.Reply(200).setBody(IMAGE);
+    }
+
+    public void testOk() throws IOException {
+        Fetcher.Response response = fetcher.fetch(server.getUrl("/image"), null);
+        try {
+            assertFalse(response.isNotModified());
+            assertTrue(Arrays.equals(IMAGE, read(response)));
+            CacheHeaders headers = response.getCacheHeaders();
+            assertEquals(ETAG, headers.getETag());
+            assertEquals(LAST_MODIFIED, headers.getLastModified());
+            assertFalse(headers.isStale(System.currentTimeMillis()));
+        } finally {
+            response.close();
+        }
+        TestServer.Request request = server.getRequests().get(0);
+        assertNull(request.getHeader("If-None-Match"));
+        assertNull(request.getHeader("If-Modified-Since"));
+        assertEquals("identity", request.getHeader("Accept-Encoding"));
+    }
+
+    public void testNotModifiedWithETag() throws IOException {
+        CacheHeaders cached = new CacheHeaders(ETAG, null, 0, false);
+        Fetcher.Response response = fetcher.fetch(server.getUrl("/image"), cached);
+        try {
+            assertTrue(response.isNotModified());
+            assertNull(response.getBody());
+            // The validators of the cached copy are kept, and it's fresh again for as long as the 304 says
+            CacheHeaders headers = response.getCacheHeaders();
+            assertEquals(ETAG, headers.getETag());
+            assertFalse(headers.isStale(System.currentTimeMillis()));
+        } finally {
+            response.close();
+        }
+        assertEquals(ETAG, server.getRequests().get(0).getHeader("If-None-Match"));
+    }
+
+    public void testNotModifiedWithLastModified() throws IOException {
+        CacheHeaders cached = new CacheHeaders(null, LAST_MODIFIED, 0, false);
+        Fetcher.Response response = fetcher.fetch(server.getUrl("/image"), cached);
+        try {
+            assertTrue(response.isNotModified());
+            assertEquals(LAST_MODIFIED, response.getCacheHeaders().getLastModified());
+        } finally {
+            response.close();
+        }
+        TestServer.Request request = server.getRequests().get(0);
+        assertEquals(LAST_MODIFIED, request.getHeader("If-Modified-Since"));
+        assertNull(request.getHeader("If-None-Match"));
+    }
+
+    public void testChangedImageIsDownloadedAgain() throws IOException {
+        CacheHeaders cached = new CacheHeaders("\"v0\"", null, 0, false);
+        Fetcher.Response response = fetcher.fetch(server.getUrl("/image"), cached);
+        try {
+            assertFalse(response.isNotModified());
+            assertTrue(Arrays.equals(IMAGE, read(response)));
+            assertEquals(ETAG, response.getCacheHeaders().getETag());
+            assertFalse(response.getCacheHeaders().isSameVersion(cached));
+        } finally {
+            response.close();
+        }
+    }
+
+    public void testNotFound() throws IOException {
+        try {
+            fetcher.fetch(server.getUrl("/missing"), null).close();
+            fail("A 404 response was returned");
+        } catch (HttpStatusException e) {
+            assertEquals(404, e.getStatusCode());
+            assertFalse(e.isServerError());
+        }
+    }
+
+    public void testServerError() throws IOException {
+        try {
+            fetcher.fetch(server.getUrl("/unavailable"), null).close();
+            fail("A 503 response was returned");
+        } catch (HttpStatusException e) {
+            assertEquals(503, e.getStatusCode());
+            assertTrue(e.isServerError());
+        }
+    }
+
+    public void testSlowResponseTimesOut() throws IOException {
+        fetcher.setReadTimeout(250);
+        long start = System.currentTimeMillis();
+        try {
+            fetcher.fetch(server.getUrl("/slow"), null).close();
+            fail("A stalled response didn't time out");
+        } catch (SocketTimeoutException e) {
+            // Expected
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("The timeout took " + elapsed + "ms", elapsed < 2000);
+    }
+
+    public void testConnectionIsReused() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            Fetcher.Response response = fetcher.fetch(server.getUrl("/image"), null);
+            try {
+                read(response);
+            } finally {
+                response.close();
+            }
+        }
+        // An error response is drained, so its connection can be reused as well
+        try {
+            fetcher.fetch(server.getUrl("/missing"), null).close();
+        } catch (HttpStatusException e) {
+            // Expected
+        }
+        Fetcher.Response response = fetcher.fetch(server.getUrl("/image"), null);
+        response.close();
+        assertEquals(5, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    private static byte[] read(Fetcher.Response response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IOUtils.copy(response.getBody(), out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,268 @@
+package com.afollestad.aimage.net;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small HTTP/1.1 server on the loopback interface for tests. It answers GET requests with whatever its
+ * {@link Dispatcher} replies, keeps connections alive, and records every request it receives. The server bundled with
+ * the JDK (com.sun.net.httpserver) isn't available on Android, so it's implemented on a plain ServerSocket.
+ *
+ * @author Aidan Follestad
+ */
+public class TestServer implements Closeable {
+
+    public TestServer(Dispatcher dispatcher) throws IOException {
+        this.dispatcher = dispatcher;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "TestServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    private final Dispatcher dispatcher;
+    private final ServerSocket serverSocket;
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Decides the reply to each request. Called from a thread per connection, so it must be thread safe.
+     */
+    public interface Dispatcher {
+
+        public abstract Reply dispatch(Request request);
+    }
+
+    public static class Request {
+
+        private Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        private final String method;
+        private final String path;
+        private final Map<String, String> headers;
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the value of a request header, names are case insensitive.
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Reply {
+
+        public Reply(int status) {
+            this.status = status;
+        }
+
+        private final int status;
+        private final Map<String, String> headers = new LinkedHashMap<String, String>();
+        private byte[] body = new byte[0];
+        private long delayMillis;
+
+        public Reply setHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Reply setBody(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        /**
+         * Makes the server wait before it sends anything back, to simulate a stalled server.
+         */
+        public Reply setDelay(long millis) {
+            this.delayMillis = millis;
+            return this;
+        }
+    }
+
+    /**
+     * Gets the URL of a path on the server, e.g. "/image.png".
+     */
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    /**
+     * Gets the requests the server received so far, in the order they arrived.
+     */
+    public List<Request> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<Request>(requests);
+        }
+    }
+
+    public int getRequestCount() {
+        return requests.size();
+    }
+
+    /**
+     * Gets the number of connections that were opened to the server, requests on a reused connection don't count.
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }
+    }
+
+    private void acceptConnections() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connectionCount.incrementAndGet();
+            sockets.add(socket);
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serveConnection(socket);
+                    } catch (IOException e) {
+                        // The client went away, or the server was closed
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // Already closed
+                        }
+                        sockets.remove(socket);
+                    }
+                }
+            }, "TestServer connection");
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serveConnection(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        while (!closed) {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.length() == 0)
+                return;
+            String[] parts = requestLine.split(" ");
+            Map<String, String> headers = new HashMap<String, String>();
+            String line;
+            while ((line = readLine(in)) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+                    headers.put(name, line.substring(colon + 1).trim());
+                }
+            }
+            Request request = new Request(parts[0], parts.length > 1 ? parts[1] : "/", headers);
+            requests.add(request);
+
+            Reply reply = dispatcher.dispatch(request);
+            if (reply.delayMillis > 0) {
+                try {
+                    Thread.sleep(reply.delayMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(reply.status).append(' ').append(reasonPhrase(reply.status)).append("\r\n");
+            for (Map.Entry<String, String> header : reply.headers.entrySet())
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            // A 304 response never has a body, the length is left out so the client doesn't wait for one
+            boolean hasBody = reply.status != 304 && !request.getMethod().equals("HEAD");
+            if (hasBody)
+                head.append("Content-Length: ").append(reply.body.length).append("\r\n");
+            head.append("\r\n");
+            out.write(head.toString().getBytes("ISO-8859-1"));
+            if (hasBody)
+                out.write(reply.body);
+            out.flush();
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n')
+                break;
+            if (c != '\r')
+                line.write(c);
+        }
+        if (c == -1 && line.size() == 0)
+            return null;
+        return line.toString("ISO-8859-1");
+    }
+
+    private static String reasonPhrase(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 304:
+                return "Not Modified";
+            case 404:
+                return "Not Found";
+            case 500:
+                return "Internal Server Error";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status";
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.afollestad.aimage.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Looper;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.util.Printer;
+import android.view.View;
+
+import com.afollestad.aimage.Dimension;
+import com.afollestad.aimage.ImageManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Measures the latency of binding an image that's already in the memory cache to an {@link AImageView}: it must be
+ * set before the bind returns, without posting a single message to the main looper (every message is at least one
+ * more frame before the image shows up).
+ *
+ * @author Aidan Follestad
+ */
+public class BindLatencyTest extends InstrumentationTestCase {
+
+    private static final String TAG = "BindLatencyTest";
+    private static final int SIZE = 96;
+    private static final int BINDS = 50;
+
+    private ImageManager manager;
+    private File[] files;
+    private AImageView view;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Context context = getInstrumentation().getTargetContext();
+        files = new File[]{
+                writeFixture(context, "bind-red.jpg", Color.RED),
+                writeFixture(context, "bind-blue.jpg", Color.BLUE)
+        };
+        manager = new ImageManager(context);
+        // Loads both images into the memory cache (this isn't the main thread, so the blocking get can be used)
+        for (File file : files)
+            assertNotNull(manager.get(file.getAbsolutePath(), new Dimension(SIZE)));
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view = new AImageView(getInstrumentation().getTargetContext());
+                view.setManager(manager).setSource(files[0].getAbsolutePath());
+                int spec = View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY);
+                view.measure(spec, spec);
+                view.layout(0, 0, SIZE, SIZE);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        manager.release();
+        for (File file : files)
+            file.delete();
+        super.tearDown();
+    }
+
+    private static File writeFixture(Context context, String name, int color) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE * 4, SIZE * 4, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        File file = new File(context.getCacheDir(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            assertTrue(bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out));
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    public void testCachedBindIsSynchronous() {
+        final String[] failure = new String[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BINDS && failure[0] == null; i++) {
+                    String source = files[i % files.length].getAbsolutePath();
+                    view.setSource(source).load();
+                    Bitmap expected = manager.getFromMemory(source, new Dimension(SIZE));
+                    if (expected == null || getShownBitmap() != expected)
+                        failure[0] = "Bind " + i + " of " + source + " wasn't set before load() returned";
+                }
+            }
+        });
+        assertNull(failure[0], failure[0]);
+    }
+
+    public void testCachedBindPostsNoMessages() {
+        // The instrumentation posts messages of its own to run on the main thread and to wait for it to be idle;
+        // counting the same sequence without binds takes them out of the result
+        int baseline = countMessages(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        int messages = countMessages(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BINDS; i++)
+                    view.setSource(files[i % files.length].getAbsolutePath()).load();
+            }
+        });
+        float perBind = (float) (messages - baseline) / BINDS;
+        Log.i(TAG, "Main looper messages per cached bind: " + perBind);
+        assertEquals("Main looper messages posted by " + BINDS + " cached binds", 0, messages - baseline);
+    }
+
+    /**
+     * Counts the messages the main looper dispatches from the moment the work runs until the main thread is idle.
+     */
+    private int countMessages(final Runnable work) {
+        final MessageCounter counter = new MessageCounter();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Looper.getMainLooper().setMessageLogging(counter);
+                work.run();
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Looper.getMainLooper().setMessageLogging(null);
+            }
+        });
+        return counter.count;
+    }
+
+    private Bitmap getShownBitmap() {
+        Drawable drawable = view.getDrawable();
+        return drawable instanceof BitmapDrawable ? ((BitmapDrawable) drawable).getBitmap() : null;
+    }
+
+    /**
+     * The looper logs a line when it starts dispatching a message and another when it's done; only the first is
+     * counted. Only called on the main thread.
+     */
+    private static class MessageCounter implements Printer {
+
+        public int count;
+
+        @Override
+        public void println(String line) {
+            if (line.startsWith(">>>>> Dispatching"))
+                count++;
+        }
+    }
+}